@@ -0,0 +1,203 @@
+package com.allendowney.thinkdast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns the words of a page or a query into the terms that are indexed.
+ *
+ * Each word goes through the same chain: stop words are dropped, the rest
+ * are stemmed, and, if shingles are on, each term is also joined with the
+ * terms just before it, so "java virtual machine" with shingles of 2 gives
+ * "java", "virtual", "java virtual", "machine" and "virtual machine".
+ *
+ * TermCounter runs the words of the pages through an Analyzer, and
+ * QueryParser runs the words of the queries through the same one, so a
+ * query finds the terms its words were indexed as.
+ *
+ * An Analyzer is immutable and can be shared by threads; the state of one
+ * page or query is kept in a TokenStream.
+ *
+ */
+public class Analyzer {
+
+	/**
+	 * Common English words that say little about what a page is about.
+	 */
+	public static final Set<String> ENGLISH_STOP_WORDS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList(
+					"a", "an", "and", "are", "as", "at", "be", "but", "by", "for",
+					"if", "in", "into", "is", "it", "no", "not", "of", "on", "or",
+					"such", "that", "the", "their", "then", "there", "these", "they",
+					"this", "to", "was", "will", "with")));
+
+	// most words of a page have been seen before, so stems are cached, up to this many
+	private static final int MAX_CACHED_STEMS = 1 << 16;
+
+	private final Set<String> stopWords;
+	private final boolean stem;
+	private final int shingleSize;
+
+	private final ConcurrentHashMap<String, String> stems = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Receives the terms of a TokenStream.
+	 */
+	public interface TermSink {
+		/**
+		 * @param term
+		 * @param words  The number of words in the term: 1, or more for a shingle.
+		 */
+		void accept(String term, int words);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param stopWords    Words to drop.
+	 * @param stem         Whether to stem the other words.
+	 * @param shingleSize  The most words to join into a shingle, or 1 for none.
+	 */
+	public Analyzer(Set<String> stopWords, boolean stem, int shingleSize) {
+		if (shingleSize < 1) {
+			throw new IllegalArgumentException("Shingle size must be at least 1: " + shingleSize);
+		}
+		this.stopWords = new HashSet<String>(stopWords);
+		this.stem = stem;
+		this.shingleSize = shingleSize;
+	}
+
+	/**
+	 * Returns an Analyzer that drops English stop words and stems the rest.
+	 *
+	 * @return
+	 */
+	public static Analyzer english() {
+		return new Analyzer(ENGLISH_STOP_WORDS, true, 1);
+	}
+
+	/**
+	 * Returns the most words joined into a shingle, or 1 if there are no shingles.
+	 *
+	 * @return
+	 */
+	public int getShingleSize() {
+		return shingleSize;
+	}
+
+	/**
+	 * Returns the term for one word, or null if it is a stop word.
+	 *
+	 * @param word  A word, folded the way TermCounter folds it.
+	 * @return
+	 */
+	public String filter(String word) {
+		if (stopWords.contains(word)) {
+			return null;
+		}
+		if (!stem) {
+			return word;
+		}
+		String term = stems.get(word);
+		if (term == null) {
+			term = PorterStemmer.stem(word);
+			if (stems.size() < MAX_CACHED_STEMS) {
+				stems.put(word, term);
+			}
+		}
+		return term;
+	}
+
+	/**
+	 * Returns the terms of a list of words, in order, without shingles.
+	 *
+	 * @param words
+	 * @return
+	 */
+	public List<String> analyze(List<String> words) {
+		final List<String> terms = new ArrayList<String>();
+		TokenStream stream = newStream();
+		for (String word : words) {
+			stream.add(word, new TermSink() {
+				@Override
+				public void accept(String term, int n) {
+					if (n == 1) {
+						terms.add(term);
+					}
+				}
+			});
+		}
+		return terms;
+	}
+
+	/**
+	 * Returns a TokenStream, for the words of one page or query.
+	 *
+	 * @return
+	 */
+	public TokenStream newStream() {
+		return new TokenStream();
+	}
+
+	/**
+	 * Runs a sequence of words through the Analyzer, remembering the last
+	 * few terms to make shingles with. Not thread-safe.
+	 */
+	public class TokenStream {
+		// the last terms, oldest first
+		private final String[] window = new String[shingleSize - 1];
+		private int filled = 0;
+
+		/**
+		 * Passes the terms of the next word to `sink`: none for a stop word,
+		 * otherwise its term and then the shingles that end with it, shortest
+		 * first.
+		 *
+		 * @param word
+		 * @param sink
+		 */
+		public void add(String word, TermSink sink) {
+			String term = filter(word);
+			if (term == null) {
+				return;
+			}
+			sink.accept(term, 1);
+			if (window.length == 0) {
+				return;
+			}
+
+			StringBuilder sb = new StringBuilder(term);
+			for (int i = filled - 1; i >= 0; i--) {
+				sb.insert(0, ' ').insert(0, window[i]);
+				sink.accept(sb.toString(), filled - i + 1);
+			}
+
+			if (filled == window.length) {
+				System.arraycopy(window, 1, window, 0, filled - 1);
+				filled--;
+			}
+			window[filled++] = term;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Analyzer analyzer = new Analyzer(ENGLISH_STOP_WORDS, true, 2);
+		TokenStream stream = analyzer.newStream();
+		for (String word : "the running of the java virtual machines".split(" ")) {
+			stream.add(word, new TermSink() {
+				@Override
+				public void accept(String term, int words) {
+					System.out.println(words + " " + term);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for Analyzer, and for using one in TermCounter, Index and QueryParser.
+ *
+ */
+public class AnalyzerTest {
+
+	private static List<String> stream(Analyzer analyzer, String text) {
+		final List<String> terms = new ArrayList<String>();
+		Analyzer.TokenStream stream = analyzer.newStream();
+		for (String word : text.split(" ")) {
+			stream.add(word, new Analyzer.TermSink() {
+				@Override
+				public void accept(String term, int words) {
+					terms.add(term);
+				}
+			});
+		}
+		return terms;
+	}
+
+	@Test
+	public void testFilter() {
+		Analyzer analyzer = Analyzer.english();
+		assertThat(analyzer.filter("the"), is((String) null));
+		assertThat(analyzer.filter("running"), is("run"));
+		assertThat(analyzer.filter("running"), is("run"));
+		assertThat(analyzer.analyze(Arrays.asList("the", "connected", "of", "computers")),
+				is(Arrays.asList("connect", "comput")));
+
+		Analyzer plain = new Analyzer(Analyzer.ENGLISH_STOP_WORDS, false, 1);
+		assertThat(plain.filter("running"), is("running"));
+	}
+
+	@Test
+	public void testShingles() {
+		Analyzer analyzer = new Analyzer(Analyzer.ENGLISH_STOP_WORDS, false, 3);
+		assertThat(stream(analyzer, "state of the art methods"),
+				is(Arrays.asList("state", "art", "state art", "methods", "art methods", "state art methods")));
+		assertThat(stream(analyzer, "a b c d").size(), is(6));
+	}
+
+	@Test
+	public void testTermCounter() {
+		TermCounter tc = new TermCounter("page", true);
+		tc.setAnalyzer(new Analyzer(Analyzer.ENGLISH_STOP_WORDS, true, 2));
+		tc.processText("The Java virtual machines, and the Java compilers.");
+
+		assertThat(tc.get("java"), is(2));
+		assertThat(tc.get("machin"), is(1));
+		assertThat(tc.get("the"), is(0));
+		assertThat(tc.get("java virtual"), is(1));
+		assertThat(tc.get("machin java"), is(1));
+		assertThat(tc.size(), is(5));
+		assertThat(tc.getPositions("virtual").toArray()[0], is(1));
+		assertThat(tc.getPositions("compil").toArray()[0], is(4));
+		assertThat(tc.getPositions("java virtual"), is((Positions) null));
+
+		try {
+			tc.setAnalyzer(null);
+			fail();
+		} catch (IllegalStateException e) {
+			// terms have been counted
+		}
+	}
+
+	@Test
+	public void testQueries() {
+		Analyzer analyzer = new Analyzer(Analyzer.ENGLISH_STOP_WORDS, true, 2);
+		assertThat(QueryParser.parse("the Connected OR computers", analyzer).toString(), is("(connect OR comput)"));
+		assertThat(QueryParser.parse("java NOT the", analyzer).toString(), is("java"));
+		assertThat(QueryParser.parse("\"virtual machines\"", analyzer).toString(), is("virtual machin"));
+		assertThat(QueryParser.parse("\"java virtual machines\"", analyzer).toString(), is("\"java virtual machin\""));
+		assertThat(QueryParser.parse("\"state of the art\"", analyzer).toString(), is("state art"));
+		try {
+			QueryParser.parse("the AND (of OR a)", analyzer);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// only stop words
+		}
+	}
+
+	@Test
+	public void testSearch() {
+		Index index = new Index(true);
+		index.setAnalyzer(new Analyzer(Analyzer.ENGLISH_STOP_WORDS, true, 2));
+		String[] texts = {
+				"The Java virtual machine runs compiled programs.",
+				"A machine that is virtual, running Java.",
+				"Compilers compile programs."
+		};
+		for (int i = 0; i < texts.length; i++) {
+			TermCounter tc = new TermCounter("page" + i, true);
+			tc.setAnalyzer(index.getAnalyzer());
+			tc.processText(texts[i]);
+			index.indexPage(tc);
+		}
+
+		QueryPlanner planner = new QueryPlanner(index, new TfIdfScorer(), index.getAnalyzer());
+		assertThat(planner.search("compiling").urls().size(), is(2));
+		// page1 has both words, but not next to each other
+		WikiSearch search = planner.search("\"virtual machines\"");
+		assertThat(search.urls().size(), is(1));
+		assertThat(search.urls().contains("page0"), is(true));
+		assertThat(planner.search("\"java virtual machines\"").urls().size(), is(1));
+		assertThat(planner.search("machines running").urls().size(), is(2));
+
+		// without an Analyzer, the planner uses the index's
+		planner = new QueryPlanner(index, new TfIdfScorer());
+		assertThat(planner.search("compiling").urls().size(), is(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOtherAnalyzer() {
+		Index index = new Index();
+		index.setAnalyzer(Analyzer.english());
+		new QueryPlanner(index, new TfIdfScorer(), new Analyzer(Analyzer.ENGLISH_STOP_WORDS, false, 1));
+	}
+}
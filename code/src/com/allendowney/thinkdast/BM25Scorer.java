@@ -0,0 +1,44 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Scores terms with Okapi BM25.
+ *
+ * Term frequency saturates (controlled by k1), and counts on pages
+ * longer than average are discounted (controlled by b).
+ *
+ */
+public class BM25Scorer implements Scorer {
+
+	private final double k1;
+	private final double b;
+
+	/**
+	 * Constructor with the usual parameters, k1 = 1.2 and b = 0.75.
+	 */
+	public BM25Scorer() {
+		this(1.2, 0.75);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param k1  Term frequency saturation; 0 ignores tf.
+	 * @param b   Length normalization, from 0 (none) to 1 (full).
+	 */
+	public BM25Scorer(double k1, double b) {
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	@Override
+	public double score(int tf, int docLength, int df, int numDocs, double avgDocLength) {
+		if (tf <= 0) {
+			return 0;
+		}
+		// the +1 keeps idf positive for terms that appear on most pages
+		int n = Math.max(numDocs, df);
+		double idf = Math.log(1.0 + (n - df + 0.5) / (df + 0.5));
+		double norm = avgDocLength > 0 ? docLength / avgDocLength : 1.0;
+		return idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * norm));
+	}
+}
@@ -0,0 +1,256 @@
+package com.allendowney.thinkdast;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe LRU cache with a budget on the total weight of its entries.
+ *
+ * The weight of an entry is whatever the Weigher says, usually an estimate
+ * of its size in bytes. When a put goes over the budget, the least recently
+ * used entries are evicted until it fits. Entries can also be given a time
+ * to live, after which they are dropped the next time they are looked up.
+ * Hits, misses and evictions are counted so the cache can be tuned.
+ *
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * Estimates the cost of an entry.
+	 */
+	public interface Weigher<K, V> {
+		long weigh(K key, V value);
+	}
+
+	/**
+	 * Is told about entries that leave the cache, by eviction or removal.
+	 */
+	public interface RemovalListener<K, V> {
+		void onRemoval(K key, V value);
+	}
+
+	private final long maxWeight;
+	private final Weigher<K, V> weigher;
+	private final long ttlNanos;
+	private RemovalListener<K, V> listener;
+
+	// in access order, least recently used first
+	private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final Map<K, Long> weights = new HashMap<K, Long>();
+	private final Map<K, Long> writeTimes = new HashMap<K, Long>();
+	private long weight = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxWeight  Budget for the total weight of the entries.
+	 * @param weigher
+	 */
+	public BoundedCache(long maxWeight, Weigher<K, V> weigher) {
+		this(maxWeight, 0, TimeUnit.NANOSECONDS, weigher);
+	}
+
+	/**
+	 * Constructor for a cache whose entries expire.
+	 *
+	 * @param maxWeight  Budget for the total weight of the entries.
+	 * @param ttl        How long an entry is served after it is put; 0 for ever.
+	 * @param unit
+	 * @param weigher
+	 */
+	public BoundedCache(long maxWeight, long ttl, TimeUnit unit, Weigher<K, V> weigher) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+		}
+		this.maxWeight = maxWeight;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Sets the listener for entries that leave the cache.
+	 *
+	 * @param listener
+	 */
+	public synchronized void setRemovalListener(RemovalListener<K, V> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Looks up a key, marking the entry as recently used.
+	 *
+	 * An entry older than its time to live is removed and counts as a miss.
+	 *
+	 * @param key
+	 * @return The value, or null.
+	 */
+	public synchronized V get(K key) {
+		V value = map.get(key);
+		if (value != null && ttlNanos > 0 && System.nanoTime() - writeTimes.get(key) >= ttlNanos) {
+			remove(key);
+			expirations++;
+			value = null;
+		}
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Checks whether a key has an entry, without marking it as used or
+	 * counting a hit or miss.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean containsKey(K key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Adds or replaces an entry, evicting others if needed.
+	 *
+	 * An entry heavier than the whole budget is not cached.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(K key, V value) {
+		remove(key);
+		long w = weigher.weigh(key, value);
+		if (w > maxWeight) {
+			return;
+		}
+		map.put(key, value);
+		weights.put(key, w);
+		writeTimes.put(key, System.nanoTime());
+		weight += w;
+
+		Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+		while (weight > maxWeight) {
+			Map.Entry<K, V> eldest = it.next();
+			it.remove();
+			weight -= weights.remove(eldest.getKey());
+			writeTimes.remove(eldest.getKey());
+			evictions++;
+			if (listener != null) {
+				listener.onRemoval(eldest.getKey(), eldest.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes an entry if it is present.
+	 *
+	 * @param key
+	 * @return The value that was removed, or null.
+	 */
+	public synchronized V remove(K key) {
+		V value = map.remove(key);
+		if (value != null) {
+			weight -= weights.remove(key);
+			writeTimes.remove(key);
+			if (listener != null) {
+				listener.onRemoval(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		if (listener != null) {
+			for (Map.Entry<K, V> entry : map.entrySet()) {
+				listener.onRemoval(entry.getKey(), entry.getValue());
+			}
+		}
+		map.clear();
+		weights.clear();
+		writeTimes.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns the total weight of the entries.
+	 *
+	 * @return
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	/**
+	 * Returns the number of lookups that found an entry.
+	 *
+	 * @return
+	 */
+	public synchronized long hitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing.
+	 *
+	 * @return
+	 */
+	public synchronized long missCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries evicted to stay within the budget.
+	 *
+	 * @return
+	 */
+	public synchronized long evictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because they outlived their
+	 * time to live.
+	 *
+	 * @return
+	 */
+	public synchronized long expirationCount() {
+		return expirations;
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 0 if there were none.
+	 *
+	 * @return
+	 */
+	public synchronized double hitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d entries, weight %d/%d, %d hits, %d misses, %d evictions, %d expirations",
+				map.size(), weight, maxWeight, hits, misses, evictions, expirations);
+	}
+}
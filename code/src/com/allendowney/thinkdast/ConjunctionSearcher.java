@@ -0,0 +1,177 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Finds the pages that contain all the terms of an AND query.
+ *
+ * The postings are intersected leapfrog style: the shortest list proposes
+ * a docId and the other cursors advance to it with their skip pointers.
+ * Whenever one of them overshoots, its docId becomes the new candidate.
+ * So a query with one rare term and one common term costs about the length
+ * of the rare list, not the common one.
+ *
+ */
+public class ConjunctionSearcher {
+
+	private final InvertedIndex index;
+	private final Scorer scorer;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param scorer
+	 */
+	public ConjunctionSearcher(InvertedIndex index, Scorer scorer) {
+		this.index = index;
+		this.scorer = scorer;
+	}
+
+	private static final Comparator<PostingsList> BY_SIZE = new Comparator<PostingsList>() {
+		@Override
+		public int compare(PostingsList p1, PostingsList p2) {
+			return Integer.compare(p1.size(), p2.size());
+		}
+	};
+
+	/**
+	 * Returns the docIds of the pages that contain all of `terms`, in order.
+	 *
+	 * @param terms
+	 * @return
+	 */
+	public int[] intersect(List<String> terms) {
+		PostingsList[] lists = getPostings(terms);
+		if (lists == null) {
+			return new int[0];
+		}
+		PostingsList.Cursor[] cursors = cursors(lists);
+		int[] docIds = new int[lists[0].size()];
+		int n = 0;
+		for (int doc = nextMatch(cursors); doc != PostingsCursor.NO_MORE_DOCS; doc = nextMatch(cursors)) {
+			if (!index.isDeleted(doc)) {
+				docIds[n++] = doc;
+			}
+			cursors[0].next();
+		}
+		return Arrays.copyOf(docIds, n);
+	}
+
+	/**
+	 * Finds the `k` best pages that contain all of `terms`.
+	 *
+	 * @param terms
+	 * @param k      Number of results; 0 for all of them.
+	 * @return Map from URL to relevance, most relevant first.
+	 */
+	public Map<String, Double> search(List<String> terms, int k) {
+		PostingsList[] lists = getPostings(terms);
+		if (lists == null) {
+			return new LinkedHashMap<String, Double>();
+		}
+		int numDocs = index.numDocs();
+		double avgDocLength = index.avgDocLength();
+		PostingsList.Cursor[] cursors = cursors(lists);
+
+		Map<String, Double> scores = new LinkedHashMap<String, Double>();
+		for (int doc = nextMatch(cursors); doc != PostingsCursor.NO_MORE_DOCS; doc = nextMatch(cursors)) {
+			if (!index.isDeleted(doc)) {
+				double score = 0;
+				for (int i = 0; i < cursors.length; i++) {
+					score += scorer.score(cursors[i].freq(), index.getDocLength(doc),
+							lists[i].size(), numDocs, avgDocLength);
+				}
+				scores.put(index.getURL(doc), score);
+			}
+			cursors[0].next();
+		}
+
+		Comparator<Entry<String, Double>> comparator = Map.Entry.comparingByValue();
+		List<Entry<String, Double>> top = new ListSorter<Entry<String, Double>>().topK(
+				k > 0 ? k : scores.size(), scores.entrySet(), comparator);
+		Collections.reverse(top);
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		for (Entry<String, Double> entry : top) {
+			results.put(entry.getKey(), entry.getValue());
+		}
+		return results;
+	}
+
+	/**
+	 * Looks up the postings of each distinct term, shortest first.
+	 *
+	 * @return null if any term is missing, since then nothing matches.
+	 */
+	private PostingsList[] getPostings(List<String> terms) {
+		List<PostingsList> lists = new ArrayList<PostingsList>();
+		for (String term : new LinkedHashSet<String>(terms)) {
+			PostingsList postings = index.get(term);
+			if (postings == null) {
+				return null;
+			}
+			lists.add(postings);
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+		Collections.sort(lists, BY_SIZE);
+		return lists.toArray(new PostingsList[lists.size()]);
+	}
+
+	private static PostingsList.Cursor[] cursors(PostingsList[] lists) {
+		PostingsList.Cursor[] cursors = new PostingsList.Cursor[lists.length];
+		for (int i = 0; i < lists.length; i++) {
+			cursors[i] = lists[i].cursor();
+		}
+		return cursors;
+	}
+
+	/**
+	 * Advances the cursors until they are all on the same docId.
+	 *
+	 * @return The docId, or NO_MORE_DOCS.
+	 */
+	private static int nextMatch(PostingsList.Cursor[] cursors) {
+		int doc = cursors[0].docId();
+		int i = 1;
+		while (doc != PostingsCursor.NO_MORE_DOCS && i < cursors.length) {
+			int other = cursors[i].advance(doc);
+			if (other == doc) {
+				i++;
+			} else {
+				// overshot: the lead cursor catches up and we start over
+				doc = cursors[0].advance(other);
+				i = 1;
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		InvertedIndex index = new InvertedIndex();
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		ConjunctionSearcher searcher = new ConjunctionSearcher(index, new BM25Scorer());
+		System.out.println(searcher.search(Arrays.asList("java", "programming"), 10));
+	}
+}
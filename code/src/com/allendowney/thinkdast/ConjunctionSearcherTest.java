@@ -0,0 +1,116 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks ConjunctionSearcher against intersecting the counts directly.
+ *
+ */
+public class ConjunctionSearcherTest {
+
+	private InvertedIndex index;
+	private ConjunctionSearcher searcher;
+
+	// docIds assigned so far, including replaced pages
+	private int numDocIds;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(5);
+		index = new InvertedIndex();
+		for (int i = 0; i < 5000; i++) {
+			TermCounter tc = new TermCounter("page" + i);
+			if (random.nextInt(10) != 0) {
+				tc.put("common", 1 + random.nextInt(5));
+			}
+			if (random.nextInt(3) == 0) {
+				tc.put("medium", 1 + random.nextInt(10));
+			}
+			if (random.nextInt(200) == 0) {
+				tc.put("rare", 1 + random.nextInt(20));
+			}
+			tc.put("filler", 1 + random.nextInt(100));
+			index.indexPage(tc);
+		}
+		numDocIds = 5000;
+		searcher = new ConjunctionSearcher(index, new BM25Scorer());
+	}
+
+	@Test
+	public void testIntersect() {
+		List<List<String>> queries = Arrays.asList(
+				Arrays.asList("rare", "common"),
+				Arrays.asList("common", "medium"),
+				Arrays.asList("medium", "rare", "common"),
+				Arrays.asList("common"));
+		for (List<String> terms : queries) {
+			assertThat(toList(searcher.intersect(terms)), is(expected(terms)));
+		}
+		assertThat(searcher.intersect(Arrays.asList("rare", "missing")).length, is(0));
+	}
+
+	@Test
+	public void testSearch() {
+		List<String> terms = Arrays.asList("rare", "common");
+		Map<String, Double> all = searcher.search(terms, 0);
+		assertThat(all.size(), is(expected(terms).size()));
+
+		Map<String, Double> top = searcher.search(terms, 3);
+		assertThat(top.size(), is(3));
+		List<Double> scores = new ArrayList<Double>(all.values());
+		List<Double> topScores = new ArrayList<Double>(top.values());
+		assertThat(topScores, is(scores.subList(0, 3)));
+	}
+
+	@Test
+	public void testReindex() {
+		TermCounter tc = new TermCounter("page0");
+		tc.put("rare", 1);
+		index.indexPage(tc);
+		numDocIds++;
+		assertThat(toList(searcher.intersect(Arrays.asList("rare", "common"))),
+				is(expected(Arrays.asList("rare", "common"))));
+	}
+
+	private List<Integer> toList(int[] docIds) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int docId : docIds) {
+			list.add(docId);
+		}
+		return list;
+	}
+
+	/**
+	 * Finds the live docIds that have a count for every term.
+	 */
+	private List<Integer> expected(List<String> terms) {
+		List<Map<String, Integer>> counts = new ArrayList<Map<String, Integer>>();
+		for (String term : terms) {
+			counts.add(index.getCounts(term));
+		}
+		List<Integer> list = new ArrayList<Integer>();
+		for (int docId = 0; docId < numDocIds; docId++) {
+			if (index.isDeleted(docId)) {
+				continue;
+			}
+			boolean all = true;
+			for (Map<String, Integer> map : counts) {
+				all &= map.containsKey(index.getURL(docId));
+			}
+			if (all) {
+				list.add(docId);
+			}
+		}
+		return list;
+	}
+}
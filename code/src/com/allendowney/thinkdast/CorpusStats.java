@@ -0,0 +1,46 @@
+package com.allendowney.thinkdast;
+
+/**
+ * The corpus-wide statistics a Scorer needs, read from an index together
+ * so that they agree with each other.
+ *
+ */
+public class CorpusStats {
+
+	private final int numDocs;
+	private final double avgDocLength;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numDocs       Number of pages in the index.
+	 * @param avgDocLength  Average number of terms per page.
+	 */
+	public CorpusStats(int numDocs, double avgDocLength) {
+		this.numDocs = numDocs;
+		this.avgDocLength = avgDocLength;
+	}
+
+	/**
+	 * Returns the number of pages in the index.
+	 *
+	 * @return
+	 */
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * Returns the average number of terms per page.
+	 *
+	 * @return
+	 */
+	public double getAvgDocLength() {
+		return avgDocLength;
+	}
+
+	@Override
+	public String toString() {
+		return "CorpusStats(numDocs=" + numDocs + ", avgDocLength=" + avgDocLength + ")";
+	}
+}
@@ -0,0 +1,438 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of docIds, after Roaring bitmaps.
+ *
+ * The docIds are split into chunks of 65536 by their high 16 bits. A chunk
+ * with few docIds stores their low 16 bits in a sorted array; a chunk with
+ * more than ARRAY_LIMIT stores a 65536-bit bitmap, 8 KB. So sparse sets
+ * cost two bytes per docId and dense sets one bit, and and/or/andNot on
+ * two bitmaps are loops of bitwise operations on longs.
+ *
+ * See Chambi et al., "Better bitmap performance with Roaring bitmaps",
+ * Software: Practice and Experience, 2016.
+ *
+ * DocSets are immutable once built; use a Builder to make one.
+ *
+ */
+public class DocSet {
+
+	// arrays with more values than this are stored as bitmaps, which are smaller
+	static final int ARRAY_LIMIT = 4096;
+
+	private static final int BITMAP_WORDS = 1024;
+
+	public static final DocSet EMPTY = new DocSet(new char[0], new Object[0], 0);
+
+	// chunk i holds the docIds whose high 16 bits are keys[i], as char[] or long[]
+	private final char[] keys;
+	private final Object[] chunks;
+	private final int size;
+
+	private DocSet(char[] keys, Object[] chunks, int size) {
+		this.keys = keys;
+		this.chunks = chunks;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the number of docIds in the set.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the set contains a docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public boolean contains(int docId) {
+		int i = Arrays.binarySearch(keys, (char) (docId >>> 16));
+		if (i < 0) {
+			return false;
+		}
+		char low = (char) docId;
+		Object chunk = chunks[i];
+		if (chunk instanceof long[]) {
+			return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch((char[]) chunk, low) >= 0;
+	}
+
+	/**
+	 * Returns the docIds in increasing order.
+	 *
+	 * @return
+	 */
+	public int[] toArray() {
+		int[] docIds = new int[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int high = keys[i] << 16;
+			Object chunk = chunks[i];
+			if (chunk instanceof long[]) {
+				long[] words = (long[]) chunk;
+				for (int w = 0; w < words.length; w++) {
+					long word = words[w];
+					while (word != 0) {
+						docIds[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			} else {
+				for (char low : (char[]) chunk) {
+					docIds[n++] = high | low;
+				}
+			}
+		}
+		return docIds;
+	}
+
+	/**
+	 * Computes the intersection of two sets. (A ∩ B)
+	 *
+	 * @param that
+	 * @return
+	 */
+	public DocSet and(DocSet that) {
+		Merger merger = new Merger(Math.min(keys.length, that.keys.length));
+		int i = 0, j = 0;
+		while (i < keys.length && j < that.keys.length) {
+			if (keys[i] < that.keys[j]) {
+				i++;
+			} else if (keys[i] > that.keys[j]) {
+				j++;
+			} else {
+				merger.add(keys[i], and(chunks[i], that.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return merger.build();
+	}
+
+	/**
+	 * Computes the union of two sets. (A ∪ B)
+	 *
+	 * @param that
+	 * @return
+	 */
+	public DocSet or(DocSet that) {
+		Merger merger = new Merger(keys.length + that.keys.length);
+		int i = 0, j = 0;
+		while (i < keys.length || j < that.keys.length) {
+			if (j == that.keys.length || (i < keys.length && keys[i] < that.keys[j])) {
+				merger.add(keys[i], chunks[i]);
+				i++;
+			} else if (i == keys.length || keys[i] > that.keys[j]) {
+				merger.add(that.keys[j], that.chunks[j]);
+				j++;
+			} else {
+				merger.add(keys[i], or(chunks[i], that.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return merger.build();
+	}
+
+	/**
+	 * Computes the difference of two sets. (A - B)
+	 *
+	 * @param that
+	 * @return
+	 */
+	public DocSet andNot(DocSet that) {
+		Merger merger = new Merger(keys.length);
+		int j = 0;
+		for (int i = 0; i < keys.length; i++) {
+			while (j < that.keys.length && that.keys[j] < keys[i]) {
+				j++;
+			}
+			if (j < that.keys.length && that.keys[j] == keys[i]) {
+				merger.add(keys[i], andNot(chunks[i], that.chunks[j]));
+			} else {
+				merger.add(keys[i], chunks[i]);
+			}
+		}
+		return merger.build();
+	}
+
+	private static Object and(Object a, Object b) {
+		if (a instanceof long[] && b instanceof long[]) {
+			long[] x = (long[]) a, y = (long[]) b;
+			long[] words = new long[BITMAP_WORDS];
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				words[w] = x[w] & y[w];
+			}
+			return shrink(words);
+		}
+		if (a instanceof long[]) {
+			return filter((char[]) b, (long[]) a, true);
+		}
+		if (b instanceof long[]) {
+			return filter((char[]) a, (long[]) b, true);
+		}
+		// merge two sorted arrays
+		char[] x = (char[]) a, y = (char[]) b;
+		char[] values = new char[Math.min(x.length, y.length)];
+		int n = 0, i = 0, j = 0;
+		while (i < x.length && j < y.length) {
+			if (x[i] < y[j]) {
+				i++;
+			} else if (x[i] > y[j]) {
+				j++;
+			} else {
+				values[n++] = x[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static Object or(Object a, Object b) {
+		if (a instanceof long[] || b instanceof long[]) {
+			long[] words = a instanceof long[] ? ((long[]) a).clone() : toBitmap((char[]) a);
+			if (b instanceof long[]) {
+				long[] y = (long[]) b;
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					words[w] |= y[w];
+				}
+			} else {
+				for (char low : (char[]) b) {
+					words[low >>> 6] |= 1L << low;
+				}
+			}
+			return words;
+		}
+		// merge two sorted arrays
+		char[] x = (char[]) a, y = (char[]) b;
+		char[] values = new char[x.length + y.length];
+		int n = 0, i = 0, j = 0;
+		while (i < x.length || j < y.length) {
+			if (j == y.length || (i < x.length && x[i] < y[j])) {
+				values[n++] = x[i++];
+			} else if (i == x.length || x[i] > y[j]) {
+				values[n++] = y[j++];
+			} else {
+				values[n++] = x[i];
+				i++;
+				j++;
+			}
+		}
+		if (n > ARRAY_LIMIT) {
+			return toBitmap(Arrays.copyOf(values, n));
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static Object andNot(Object a, Object b) {
+		if (a instanceof long[]) {
+			long[] words = ((long[]) a).clone();
+			if (b instanceof long[]) {
+				long[] y = (long[]) b;
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					words[w] &= ~y[w];
+				}
+			} else {
+				for (char low : (char[]) b) {
+					words[low >>> 6] &= ~(1L << low);
+				}
+			}
+			return shrink(words);
+		}
+		if (b instanceof long[]) {
+			return filter((char[]) a, (long[]) b, false);
+		}
+		char[] x = (char[]) a, y = (char[]) b;
+		char[] values = new char[x.length];
+		int n = 0, j = 0;
+		for (char value : x) {
+			while (j < y.length && y[j] < value) {
+				j++;
+			}
+			if (j == y.length || y[j] != value) {
+				values[n++] = value;
+			}
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	/**
+	 * Keeps the values that are (or are not) in a bitmap.
+	 */
+	private static char[] filter(char[] values, long[] words, boolean keep) {
+		char[] result = new char[values.length];
+		int n = 0;
+		for (char value : values) {
+			boolean in = (words[value >>> 6] & (1L << value)) != 0;
+			if (in == keep) {
+				result[n++] = value;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static long[] toBitmap(char[] values) {
+		long[] words = new long[BITMAP_WORDS];
+		for (char value : values) {
+			words[value >>> 6] |= 1L << value;
+		}
+		return words;
+	}
+
+	/**
+	 * Converts a bitmap to an array if that is smaller.
+	 */
+	private static Object shrink(long[] words) {
+		int count = cardinality(words);
+		if (count > ARRAY_LIMIT) {
+			return words;
+		}
+		char[] values = new char[count];
+		int n = 0;
+		for (int w = 0; w < words.length; w++) {
+			long word = words[w];
+			while (word != 0) {
+				values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return values;
+	}
+
+	private static int cardinality(Object chunk) {
+		if (chunk instanceof char[]) {
+			return ((char[]) chunk).length;
+		}
+		int count = 0;
+		for (long word : (long[]) chunk) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Collects the chunks of a result, dropping empty ones.
+	 */
+	private static class Merger {
+		private char[] keys;
+		private Object[] chunks;
+		private int n = 0;
+		private int size = 0;
+
+		Merger(int capacity) {
+			keys = new char[capacity];
+			chunks = new Object[capacity];
+		}
+
+		void add(char key, Object chunk) {
+			int count = cardinality(chunk);
+			if (count > 0) {
+				keys[n] = key;
+				chunks[n] = chunk;
+				n++;
+				size += count;
+			}
+		}
+
+		DocSet build() {
+			return new DocSet(Arrays.copyOf(keys, n), Arrays.copyOf(chunks, n), size);
+		}
+	}
+
+	/**
+	 * Makes a DocSet from docIds added in increasing order.
+	 */
+	public static class Builder {
+		private Merger merger = new Merger(4);
+		private int last = -1;
+
+		// the chunk being filled
+		private char key;
+		private char[] values = new char[16];
+		private long[] words;
+		private int count = 0;
+
+		/**
+		 * Adds a docId, which must be larger than the previous one.
+		 *
+		 * @param docId
+		 * @return this Builder
+		 */
+		public Builder add(int docId) {
+			if (docId <= last) {
+				throw new IllegalArgumentException("docId out of order: " + docId);
+			}
+			char high = (char) (docId >>> 16);
+			if (count > 0 && high != key) {
+				flush();
+			}
+			key = high;
+			last = docId;
+			char low = (char) docId;
+			if (words != null) {
+				words[low >>> 6] |= 1L << low;
+			} else if (count == ARRAY_LIMIT) {
+				words = toBitmap(values);
+				words[low >>> 6] |= 1L << low;
+			} else {
+				if (count == values.length) {
+					values = Arrays.copyOf(values, Math.min(count * 2, ARRAY_LIMIT));
+				}
+				values[count] = low;
+			}
+			count++;
+			return this;
+		}
+
+		private void flush() {
+			if (merger.n == merger.keys.length) {
+				merger.keys = Arrays.copyOf(merger.keys, merger.n * 2);
+				merger.chunks = Arrays.copyOf(merger.chunks, merger.n * 2);
+			}
+			merger.add(key, words != null ? words : Arrays.copyOf(values, count));
+			values = new char[16];
+			words = null;
+			count = 0;
+		}
+
+		/**
+		 * Returns the DocSet.
+		 *
+		 * @return
+		 */
+		public DocSet build() {
+			if (count > 0) {
+				flush();
+			}
+			return merger.build();
+		}
+	}
+
+	/**
+	 * Makes a DocSet from docIds in increasing order.
+	 *
+	 * @param docIds
+	 * @return
+	 */
+	public static DocSet of(int... docIds) {
+		Builder builder = new Builder();
+		for (int docId : docIds) {
+			builder.add(docId);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
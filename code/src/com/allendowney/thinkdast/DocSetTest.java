@@ -0,0 +1,97 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks DocSet against java.util.BitSet.
+ *
+ */
+public class DocSetTest {
+
+	private Random random = new Random(11);
+
+	/**
+	 * Makes a random set where each chunk is sparse or dense, so both
+	 * kinds of chunk meet each other in the operations.
+	 */
+	private BitSet randomBits() {
+		BitSet bits = new BitSet();
+		for (int chunk = 0; chunk < 6; chunk++) {
+			int n = random.nextBoolean() ? random.nextInt(100) : 5000 + random.nextInt(30000);
+			for (int i = 0; i < n; i++) {
+				bits.set(chunk * 65536 + random.nextInt(65536));
+			}
+		}
+		return bits;
+	}
+
+	private DocSet toDocSet(BitSet bits) {
+		return DocSet.of(bits.stream().toArray());
+	}
+
+	private void check(DocSet set, BitSet bits) {
+		assertThat(set.toArray(), is(bits.stream().toArray()));
+		assertThat(set.size(), is(bits.cardinality()));
+	}
+
+	@Test
+	public void testOperations() {
+		for (int trial = 0; trial < 20; trial++) {
+			BitSet a = randomBits();
+			BitSet b = randomBits();
+			DocSet x = toDocSet(a);
+			DocSet y = toDocSet(b);
+			check(x, a);
+
+			BitSet and = (BitSet) a.clone();
+			and.and(b);
+			check(x.and(y), and);
+
+			BitSet or = (BitSet) a.clone();
+			or.or(b);
+			check(x.or(y), or);
+
+			BitSet andNot = (BitSet) a.clone();
+			andNot.andNot(b);
+			check(x.andNot(y), andNot);
+		}
+	}
+
+	@Test
+	public void testContains() {
+		BitSet bits = randomBits();
+		DocSet set = toDocSet(bits);
+		for (int i = 0; i < 1000; i++) {
+			int docId = random.nextInt(7 * 65536);
+			assertThat(set.contains(docId), is(bits.get(docId)));
+		}
+		assertThat(DocSet.EMPTY.contains(0), is(false));
+		assertThat(DocSet.of(0, 1, 65536).or(DocSet.EMPTY).toArray(), is(new int[] {0, 1, 65536}));
+	}
+
+	@Test
+	public void testInvertedIndex() {
+		InvertedIndex index = new InvertedIndex();
+		for (int i = 0; i < 100; i++) {
+			TermCounter tc = new TermCounter("page" + i);
+			tc.put(i % 2 == 0 ? "even" : "odd", 1);
+			if (i % 3 == 0) {
+				tc.put("three", 1);
+			}
+			index.indexPage(tc);
+		}
+		DocSet docs = index.getDocSet("even").and(index.getDocSet("three"));
+		assertThat(docs.size(), is(17));
+
+		// indexing page0 again removes it from the cached sets
+		index.indexPage(new TermCounter("page0"));
+		assertThat(index.getDocSet("even").and(index.getDocSet("three")).size(), is(16));
+		assertThat(index.getDocSet("missing").size(), is(0));
+	}
+}
@@ -1,6 +1,7 @@
 package com.allendowney.thinkdast;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -14,10 +15,76 @@ import org.jsoup.select.Elements;
  * @author downey
  *
  */
-public class Index {
+public class Index implements SearchIndex {
 
     private Map<String, Set<TermCounter>> index = new HashMap<String, Set<TermCounter>>();
 
+    // the current TermCounter of each page, and the total of their sizes,
+    // kept up to date by indexPage so scoring needs no extra work at query time
+    private Map<String, TermCounter> pages = new HashMap<String, TermCounter>();
+    private long totalLength = 0;
+
+    // the number of pages with at least one term; as in JedisIndex, a page
+    // re-indexed with no terms no longer counts
+    private int numDocs = 0;
+
+    // whether indexPage records term positions, for phrase queries
+    private final boolean recordPositions;
+
+    // shared by the TermCounters that indexPage makes, so each term is stored once
+    private final TermDictionary dictionary = new TermDictionary();
+
+    // null, or the Analyzer that indexPage runs the words of each page through
+    private Analyzer analyzer;
+
+    /**
+     * Constructor.
+     */
+    public Index() {
+        this(false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param recordPositions  Whether pages are indexed with the positions
+     *                         of their terms, which phrase and proximity
+     *                         queries need.
+     */
+    public Index(boolean recordPositions) {
+        this.recordPositions = recordPositions;
+    }
+
+    /**
+     * Checks whether indexPage records term positions.
+     *
+     * @return
+     */
+    public boolean recordsPositions() {
+        return recordPositions;
+    }
+
+    /**
+     * Sets the Analyzer that indexPage runs the words of each page through.
+     *
+     * Queries have to go through the same Analyzer, as they do with
+     * QueryParser.parse(text, index.getAnalyzer()).
+     *
+     * @param analyzer  The Analyzer, or null to index the words as they are.
+     */
+    public void setAnalyzer(Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Returns the Analyzer that indexPage uses, or null.
+     *
+     * @return
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
     /**
      * Adds a TermCounter to the set associated with `term`.
      *
@@ -46,6 +113,128 @@ public class Index {
         return index.get(term);
     }
 
+    /**
+     * Returns the dictionary shared by the pages indexed with indexPage.
+     *
+     * @return
+     */
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Looks up a search term and returns a map from URL to count.
+     *
+     * @param term
+     * @return
+     */
+    public Map<String, Integer> getCounts(String term) {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        Set<TermCounter> set = get(term);
+        if (set != null) {
+            // look the term up once, not once per page
+            int termId = dictionary.lookup(term);
+            for (TermCounter tc: set) {
+                map.put(tc.getLabel(), count(tc, term, termId));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the count of a term on a page, by id if the page uses the
+     * index's dictionary.
+     */
+    private int count(TermCounter tc, String term, int termId) {
+        if (tc.getDictionary() == dictionary) {
+            return termId < 0 ? 0 : tc.get(termId);
+        }
+        return tc.get(term);
+    }
+
+    /**
+     * Looks up the counts of `term` on some pages only, one page at a time.
+     *
+     * @param term
+     * @param urls
+     * @return Map from URL to count, for the pages that contain `term`.
+     */
+    public Map<String, Integer> getCounts(String term, Collection<String> urls) {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        int termId = dictionary.lookup(term);
+        for (String url: urls) {
+            TermCounter tc = pages.get(url);
+            if (tc != null) {
+                int count = count(tc, term, termId);
+                if (count > 0) {
+                    map.put(url, count);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Checks whether a page has been indexed.
+     *
+     * @param url
+     * @return
+     */
+    public boolean isIndexed(String url) {
+        return pages.containsKey(url);
+    }
+
+    /**
+     * Returns the terms on a page.
+     *
+     * @param url
+     * @return
+     */
+    public Set<String> getTerms(String url) {
+        TermCounter tc = pages.get(url);
+        return tc == null ? new HashSet<String>() : new HashSet<String>(tc.keySet());
+    }
+
+    /**
+     * Returns the number of pages that contain `term`.
+     *
+     * @param term
+     * @return
+     */
+    public int getDocFreq(String term) {
+        Set<TermCounter> set = get(term);
+        return set == null ? 0 : set.size();
+    }
+
+    /**
+     * Returns the number of terms on a page, or 0 if it is not indexed.
+     *
+     * @param url
+     * @return
+     */
+    public int getDocLength(String url) {
+        TermCounter tc = pages.get(url);
+        return tc == null ? 0 : tc.size();
+    }
+
+    /**
+     * Returns the number of pages in the index that have terms.
+     *
+     * @return
+     */
+    public int numDocs() {
+        return numDocs;
+    }
+
+    /**
+     * Returns the average number of terms per page.
+     *
+     * @return
+     */
+    public double avgDocLength() {
+        return numDocs == 0 ? 0 : (double) totalLength / numDocs;
+    }
+
     /**
      * Prints the contents of the index.
      */
@@ -82,13 +271,54 @@ public class Index {
         // TODO: Your code here
 
         // make a TermCounter and count the terms in the paragraphs
-        TermCounter tc = new TermCounter(url);
+        TermCounter tc = new TermCounter(url, recordPositions, dictionary);
+        tc.setAnalyzer(analyzer);
 		tc.processElements(paragraphs);
+        indexPage(tc);
+    }
+
+    /**
+     * Adds a TermCounter, labeled with its URL, to the index.
+     *
+     * @param tc
+     */
+    public void indexPage(TermCounter tc) {
+        String url = tc.getLabel();
+
+        // if the page was indexed before, drop the old version
+        TermCounter old = pages.remove(url);
+        if (old != null) {
+            remove(old);
+        }
 
         // for each term in the TermCounter, add the TermCounter to the index
         for (String term : tc.keySet()) {
             add(term, tc);
         }
+        pages.put(url, tc);
+        totalLength += tc.size();
+        if (!tc.keySet().isEmpty()) {
+            numDocs++;
+        }
+    }
+
+    /**
+     * Removes a TermCounter from the sets of all its terms.
+     *
+     * @param tc
+     */
+    private void remove(TermCounter tc) {
+        for (String term : tc.keySet()) {
+            Set<TermCounter> set = get(term);
+            set.remove(tc);
+            if (set.isEmpty()) {
+                index.remove(term);
+            }
+        }
+        totalLength -= tc.size();
+        if (!tc.keySet().isEmpty()) {
+            numDocs--;
+        }
     }
 
     /**
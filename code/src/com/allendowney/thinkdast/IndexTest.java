@@ -38,10 +38,26 @@ public class IndexTest {
 		
 		for (TermCounter tc: set) {
 			// this loop only happens once
-			assertThat(tc.size(), is(4798));
+			assertThat(tc.size(), is(4462));
 			assertThat(tc.get("occur"), is(2));
 			assertThat(tc.get("not there"), is(0));
 		}
 	}
 
+	@Test
+	public void testReindexEmpty() {
+		TermCounter tc = new TermCounter("page1");
+		tc.put("java", 3);
+		index.indexPage(tc);
+		tc = new TermCounter("page2");
+		tc.put("java", 1);
+		index.indexPage(tc);
+		assertThat(index.numDocs(), is(2));
+
+		// a page re-indexed with no terms no longer counts
+		index.indexPage(new TermCounter("page1"));
+		assertThat(index.numDocs(), is(1));
+		assertThat(index.avgDocLength(), is(1.0));
+		assertThat(index.getDocFreq("java"), is(1));
+	}
 }
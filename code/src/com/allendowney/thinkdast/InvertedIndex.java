@@ -0,0 +1,414 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jsoup.select.Elements;
+
+/**
+ * An in-memory index that maps each term to a PostingsList.
+ *
+ * Unlike Index, it does not keep a TermCounter per page: each posting is a
+ * few compressed bytes, and the per-page data is a URL and a length.
+ *
+ * Pages are numbered in the order they are indexed. When a page is
+ * indexed again it gets a new docId and the old one is marked deleted,
+ * so postings only ever grow at the end and stay in docId order.
+ *
+ * Lookups, getDocSet included, can run in many threads at once, but
+ * indexPage must not run at the same time as anything else.
+ *
+ */
+public class InvertedIndex implements SearchIndex {
+
+	private Map<String, PostingsList> index = new HashMap<String, PostingsList>();
+
+	// docId -> URL and docId -> page length
+	private List<String> urls = new ArrayList<String>();
+	private int[] docLengths = new int[16];
+
+	// URL -> current docId
+	private Map<String, Integer> docIds = new HashMap<String, Integer>();
+
+	// docIds that have been replaced by a newer version of the page
+	private BitSet deleted = new BitSet();
+
+	private long totalLength = 0;
+
+	// term -> postings of deleted docIds, for the terms of pages indexed again
+	private Map<String, Integer> deletedPostings = new HashMap<String, Integer>();
+
+	// DocSets made by getDocSet, dropped when their postings change;
+	// concurrent, since lookups in several threads fill it
+	private Map<String, DocSet> docSets = new ConcurrentHashMap<String, DocSet>();
+
+	/**
+	 * Add a page to the index.
+	 *
+	 * @param url         URL of the page.
+	 * @param paragraphs  Collection of elements that should be indexed.
+	 */
+	public void indexPage(String url, Elements paragraphs) {
+		TermCounter tc = new TermCounter(url);
+		tc.processElements(paragraphs);
+		indexPage(tc);
+	}
+
+	/**
+	 * Adds the counts in a TermCounter, labeled with its URL, to the index.
+	 *
+	 * @param tc
+	 */
+	public void indexPage(TermCounter tc) {
+		String url = tc.getLabel();
+		Integer old = docIds.get(url);
+		if (old != null) {
+			delete(old);
+		}
+
+		int length = tc.size();
+		int docId = addDoc(url, length);
+		for (String term : tc.keySet()) {
+			addPosting(term, docId, tc.get(term));
+		}
+	}
+
+	/**
+	 * Marks a docId deleted and takes it out of the stats of its terms.
+	 *
+	 * @param docId
+	 */
+	private void delete(int docId) {
+		deleted.set(docId);
+		totalLength -= docLengths[docId];
+		for (String term : getTerms(docId)) {
+			Integer count = deletedPostings.get(term);
+			deletedPostings.put(term, count == null ? 1 : count + 1);
+			docSets.remove(term);
+		}
+	}
+
+	/**
+	 * Returns the terms of a docId, by looking for it in each postings list.
+	 */
+	private Set<String> getTerms(int docId) {
+		Set<String> terms = new HashSet<String>();
+		for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
+			if (entry.getValue().cursor().advance(docId) == docId) {
+				terms.add(entry.getKey());
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Assigns the next docId to a page that is not in the index.
+	 *
+	 * Used with addPosting to build an index from postings, as when
+	 * merging segments.
+	 *
+	 * @param url
+	 * @param length  Number of terms on the page.
+	 * @return The new docId.
+	 */
+	int addDoc(String url, int length) {
+		int docId = urls.size();
+		urls.add(url);
+		if (docId == docLengths.length) {
+			docLengths = Arrays.copyOf(docLengths, Math.max(16, docId * 2));
+		}
+		docLengths[docId] = length;
+		docIds.put(url, docId);
+		totalLength += length;
+		return docId;
+	}
+
+	/**
+	 * Appends a posting; for each term, docIds must be added in increasing order.
+	 *
+	 * @param term
+	 * @param docId
+	 * @param freq
+	 */
+	void addPosting(String term, int docId, int freq) {
+		PostingsList postings = index.get(term);
+		if (postings == null) {
+			postings = new PostingsList();
+			index.put(term, postings);
+		}
+		postings.add(docId, freq, docLengths[docId]);
+		docSets.remove(term);
+	}
+
+	/**
+	 * Looks up a search term and returns its postings, or null.
+	 *
+	 * The postings may include deleted docIds; see isDeleted.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public PostingsList get(String term) {
+		return index.get(term);
+	}
+
+	/**
+	 * Looks up a search term and returns a map from URL to count.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public Map<String, Integer> getCounts(String term) {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		PostingsList postings = get(term);
+		if (postings != null) {
+			PostingsList.Cursor cursor = postings.cursor();
+			for (int doc = cursor.docId(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+				if (!deleted.get(doc)) {
+					map.put(urls.get(doc), cursor.freq());
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Looks up the counts of `term` on some pages only.
+	 *
+	 * The pages are visited in docId order, so the cursor can use the skip
+	 * pointers to jump over the postings in between.
+	 *
+	 * @param term
+	 * @param urls
+	 * @return Map from URL to count, for the pages that contain `term`.
+	 */
+	public Map<String, Integer> getCounts(String term, Collection<String> urls) {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		PostingsList postings = get(term);
+		if (postings == null) {
+			return map;
+		}
+		int[] targets = new int[urls.size()];
+		int n = 0;
+		for (String url : urls) {
+			Integer docId = docIds.get(url);
+			if (docId != null) {
+				targets[n++] = docId;
+			}
+		}
+		Arrays.sort(targets, 0, n);
+
+		PostingsList.Cursor cursor = postings.cursor();
+		for (int i = 0; i < n; i++) {
+			if (cursor.advance(targets[i]) == targets[i]) {
+				map.put(this.urls.get(targets[i]), cursor.freq());
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the set of live docIds that contain `term`.
+	 *
+	 * The sets are cached until the term is indexed again, so boolean
+	 * filters on common terms don't decode the postings every time.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public DocSet getDocSet(String term) {
+		DocSet set = docSets.get(term);
+		if (set == null) {
+			PostingsList postings = get(term);
+			if (postings == null) {
+				return DocSet.EMPTY;
+			}
+			DocSet.Builder builder = new DocSet.Builder();
+			PostingsList.Cursor cursor = postings.cursor();
+			for (int doc = cursor.docId(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+				if (!deleted.get(doc)) {
+					builder.add(doc);
+				}
+			}
+			set = builder.build();
+			docSets.put(term, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Checks whether a page has been indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean isIndexed(String url) {
+		return docIds.containsKey(url);
+	}
+
+	/**
+	 * Checks whether a docId belongs to a page that was indexed again.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public boolean isDeleted(int docId) {
+		return deleted.get(docId);
+	}
+
+	/**
+	 * Returns the terms on a page.
+	 *
+	 * Looks for the page in every postings list, using the skip pointers,
+	 * so it costs a lookup per term in the index.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Set<String> getTerms(String url) {
+		Integer docId = docIds.get(url);
+		return docId == null ? new HashSet<String>() : getTerms(docId);
+	}
+
+	/**
+	 * Returns the URL of a docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public String getURL(int docId) {
+		return urls.get(docId);
+	}
+
+	/**
+	 * Returns the number of pages that contain `term`.
+	 *
+	 * Only the current version of each page is counted.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getDocFreq(String term) {
+		PostingsList postings = get(term);
+		if (postings == null) {
+			return 0;
+		}
+		Integer dead = deletedPostings.get(term);
+		return dead == null ? postings.size() : postings.size() - dead;
+	}
+
+	/**
+	 * Returns the number of terms on a page, or 0 if it is not indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getDocLength(String url) {
+		Integer docId = docIds.get(url);
+		return docId == null ? 0 : docLengths[docId];
+	}
+
+	/**
+	 * Returns the number of terms on the page with the given docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public int getDocLength(int docId) {
+		return docLengths[docId];
+	}
+
+	/**
+	 * Returns one more than the largest docId, including deleted ones.
+	 *
+	 * @return
+	 */
+	public int maxDoc() {
+		return urls.size();
+	}
+
+	/**
+	 * Returns the number of terms on all live pages.
+	 *
+	 * @return
+	 */
+	long totalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Returns the number of pages in the index.
+	 *
+	 * @return
+	 */
+	public int numDocs() {
+		return docIds.size();
+	}
+
+	/**
+	 * Returns the average number of terms per page.
+	 *
+	 * @return
+	 */
+	public double avgDocLength() {
+		return docIds.isEmpty() ? 0 : (double) totalLength / docIds.size();
+	}
+
+	/**
+	 * Releases the unused space in the postings, for example after a crawl.
+	 */
+	public void trimToSize() {
+		for (PostingsList postings : index.values()) {
+			postings.trimToSize();
+		}
+		docLengths = Arrays.copyOf(docLengths, urls.size());
+	}
+
+	/**
+	 * Returns the number of bytes used by the compressed postings.
+	 *
+	 * @return
+	 */
+	public long postingsSizeInBytes() {
+		long total = 0;
+		for (PostingsList postings : index.values()) {
+			total += postings.sizeInBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the set of terms that have been indexed.
+	 *
+	 * @return
+	 */
+	public Set<String> keySet() {
+		return index.keySet();
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		InvertedIndex index = new InvertedIndex();
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		System.out.println(index.getCounts("java"));
+	}
+}
@@ -0,0 +1,76 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.jsoup.select.Elements;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InvertedIndexTest {
+
+	private InvertedIndex index;
+	private WikiFetcher wf;
+
+	@Before
+	public void setUp() {
+		wf = new WikiFetcher();
+		index = new InvertedIndex();
+	}
+
+	@Test
+	public void testIndexPage() throws IOException {
+		// add two pages to the index
+		String url1 = "https://en.wikipedia.org/wiki/Java_(Programming_Language)";
+		Elements paragraphs = wf.readWikipedia(url1);
+		index.indexPage(url1, paragraphs);
+
+		String url2 = "https://en.wikipedia.org/wiki/Programming_language";
+		paragraphs = wf.readWikipedia(url2);
+		index.indexPage(url2, paragraphs);
+
+		// the same results as Index: "occur" only appears on one page, twice
+		Map<String, Integer> counts = index.getCounts("occur");
+		assertThat(counts.size(), is(1));
+		assertThat(counts.get(url1), is(2));
+		assertThat(index.getDocLength(url1), is(4462));
+		assertThat(index.get("not there"), is((PostingsList) null));
+		assertThat(index.numDocs(), is(2));
+
+		// indexing a page again replaces it
+		TermCounter tc = new TermCounter(url1);
+		tc.put("occur", 5);
+		index.indexPage(tc);
+		assertThat(index.getCounts("occur").get(url1), is(5));
+		assertThat(index.getCounts("java").containsKey(url1), is(false));
+		assertThat(index.numDocs(), is(2));
+		assertThat(index.getDocLength(url1), is(5));
+	}
+
+	@Test
+	public void testDocFreq() {
+		String url = "https://en.wikipedia.org/wiki/Page";
+		for (int i = 0; i < 3; i++) {
+			TermCounter tc = new TermCounter(url);
+			tc.put("old", 1);
+			tc.put("both", 1);
+			index.indexPage(tc);
+		}
+		assertThat(index.getDocFreq("old"), is(1));
+		assertThat(index.getDocFreq("both"), is(1));
+
+		// the old version's terms no longer count
+		TermCounter tc = new TermCounter(url);
+		tc.put("both", 2);
+		tc.put("new", 1);
+		index.indexPage(tc);
+		assertThat(index.getDocFreq("old"), is(0));
+		assertThat(index.getDocFreq("both"), is(1));
+		assertThat(index.getDocFreq("new"), is(1));
+		assertThat(index.getDocSet("old").size(), is(0));
+		assertThat(index.getDocSet("both").size(), is(1));
+	}
+}
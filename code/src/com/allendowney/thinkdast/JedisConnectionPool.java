@@ -0,0 +1,150 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * A fixed-size pool of Redis connections that can be shared by threads.
+ *
+ * A Jedis object is a single connection and must not be used by two
+ * threads at once. Each thread borrows a connection for one operation
+ * and releases it afterwards:
+ *
+ *     Jedis jedis = pool.borrow();
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release(jedis);
+ *     }
+ *
+ * Connections are opened lazily, up to `maxConnections`; when all of them
+ * are in use, borrow waits for one to be released.
+ *
+ */
+public class JedisConnectionPool implements Closeable {
+
+	private final String host;
+	private final int port;
+	private final int maxConnections;
+
+	// connections that are open and not borrowed
+	private final BlockingQueue<Jedis> idle;
+
+	// connections that are open, borrowed or not
+	private final AtomicInteger open = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param host
+	 * @param port
+	 * @param maxConnections
+	 */
+	public JedisConnectionPool(String host, int port, int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+		}
+		this.host = host;
+		this.port = port;
+		this.maxConnections = maxConnections;
+		this.idle = new ArrayBlockingQueue<Jedis>(maxConnections);
+	}
+
+	/**
+	 * Makes a pool around a single existing connection.
+	 *
+	 * Threads take turns using it, so this is safe but not concurrent.
+	 *
+	 * @param jedis
+	 * @return
+	 */
+	public static JedisConnectionPool of(Jedis jedis) {
+		JedisConnectionPool pool = new JedisConnectionPool(null, 0, 1);
+		pool.open.set(1);
+		pool.idle.offer(jedis);
+		return pool;
+	}
+
+	/**
+	 * Takes a connection from the pool, opening or waiting for one if needed.
+	 *
+	 * @return
+	 */
+	public Jedis borrow() {
+		Jedis jedis = idle.poll();
+		if (jedis != null) {
+			return jedis;
+		}
+
+		// reserve a slot before opening, so we never go over the limit
+		while (true) {
+			int n = open.get();
+			if (n >= maxConnections || host == null) {
+				break;
+			}
+			if (open.compareAndSet(n, n + 1)) {
+				return new Jedis(host, port);
+			}
+		}
+
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a Redis connection", e);
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool.
+	 *
+	 * A caller that failed inside a transaction or pipeline can leave the
+	 * connection in MULTI or WATCH state, so it is reset before the next
+	 * borrower gets it. Connections that failed, or can't be reset, are
+	 * closed and replaced on demand.
+	 *
+	 * @param jedis
+	 */
+	public void release(Jedis jedis) {
+		boolean reusable = !jedis.getClient().isBroken();
+		if (reusable) {
+			try {
+				jedis.resetState();
+			} catch (JedisException e) {
+				reusable = false;
+			}
+		}
+		if (!reusable && host != null) {
+			open.decrementAndGet();
+			jedis.close();
+			return;
+		}
+		idle.offer(jedis);
+	}
+
+	/**
+	 * Returns the maximum number of open connections.
+	 *
+	 * @return
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Closes the connections that are not borrowed.
+	 */
+	@Override
+	public void close() {
+		Jedis jedis;
+		while ((jedis = idle.poll()) != null) {
+			open.decrementAndGet();
+			jedis.close();
+		}
+	}
+}
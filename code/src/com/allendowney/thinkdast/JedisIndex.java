@@ -1,25 +1,72 @@
 package com.allendowney.thinkdast;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jsoup.select.Elements;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * Represents a Redis-backed web search index.
  *
  */
-public class JedisIndex {
+public class JedisIndex implements SearchIndex {
 
-	private Jedis jedis;
+	/**
+	 * How the term -> pages part of the index is stored.
+	 *
+	 * LEGACY keeps a URLSet per term and reads each count from the page's
+	 * TermCounter hash, so a lookup costs one call per page.
+	 * POSTINGS keeps a sorted set per term that maps docId to count,
+	 * so a lookup is a single command, and each URL is stored once,
+	 * in the docId dictionary, instead of once per term.
+	 *
+	 * Both layouts keep the TermCounter hash of every page.
+	 */
+	public enum Layout { LEGACY, POSTINGS }
+
+	// number of lookups sent to Redis per pipeline round trip
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// every operation borrows its own connection, so one index can serve many threads
+	private final JedisConnectionPool pool;
+	private volatile Layout layout;
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	// rough heap cost of a cached term and of each of its pages
+	private static final int BYTES_PER_TERM = 128;
+	private static final int BYTES_PER_PAGE = 96;
+
+	// client-side cache of term -> (URL -> count); null when it is off
+	private volatile BoundedCache<String, Map<String, Integer>> postingsCache;
+
+	// bumped by every write, so a lookup that overlaps one is not cached
+	private final AtomicLong cacheGeneration = new AtomicLong();
 
 	/**
 	 * Constructor.
@@ -27,7 +74,117 @@ public class JedisIndex {
 	 * @param jedis
 	 */
 	public JedisIndex(Jedis jedis) {
-		this.jedis = jedis;
+		this(jedis, Layout.LEGACY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * The index is safe to share between threads, but they take turns
+	 * using the one connection; use a pool to run them concurrently.
+	 *
+	 * @param jedis
+	 * @param layout  Layout of the data already in Redis, used for new pages too.
+	 */
+	public JedisIndex(Jedis jedis, Layout layout) {
+		this(JedisConnectionPool.of(jedis), layout);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool
+	 * @param layout  Layout of the data already in Redis, used for new pages too.
+	 */
+	public JedisIndex(JedisConnectionPool pool, Layout layout) {
+		this.pool = pool;
+		this.layout = layout;
+	}
+
+	/**
+	 * Returns the storage layout of this index.
+	 *
+	 * @return
+	 */
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Sets the number of lookups sent per pipeline round trip.
+	 *
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Keeps the counts of recently used terms in local memory.
+	 *
+	 * getCounts serves a cached term without going to Redis. Pages indexed
+	 * through this object drop the entries of the terms they change right
+	 * away; changes made by other clients show up once an entry is older
+	 * than `ttl`. The least recently used terms are evicted to keep the
+	 * estimated size of the cache under `maxBytes`.
+	 *
+	 * @param maxBytes  Memory budget; 0 turns the cache off.
+	 * @param ttl       How long a term is served from the cache; 0 for ever.
+	 * @param unit
+	 */
+	public void setPostingsCache(long maxBytes, long ttl, TimeUnit unit) {
+		if (maxBytes <= 0) {
+			postingsCache = null;
+			return;
+		}
+		postingsCache = new BoundedCache<String, Map<String, Integer>>(maxBytes, ttl, unit,
+				new BoundedCache.Weigher<String, Map<String, Integer>>() {
+					@Override
+					public long weigh(String term, Map<String, Integer> counts) {
+						long bytes = BYTES_PER_TERM + 2L * term.length();
+						for (String url : counts.keySet()) {
+							bytes += BYTES_PER_PAGE + 2L * url.length();
+						}
+						return bytes;
+					}
+				});
+	}
+
+	/**
+	 * Returns the postings cache, for its hit, miss and eviction counts,
+	 * or null if it is off.
+	 *
+	 * @return
+	 */
+	public BoundedCache<String, ?> getPostingsCache() {
+		return postingsCache;
+	}
+
+	/**
+	 * Drops the cached counts of `terms` after they were written.
+	 */
+	private void invalidate(Collection<String> terms) {
+		BoundedCache<String, Map<String, Integer>> cache = postingsCache;
+		if (cache == null) {
+			return;
+		}
+		// bump first: a lookup that started before the write and registers
+		// its entry after this point sees the change and drops it
+		cacheGeneration.incrementAndGet();
+		for (String term : terms) {
+			cache.remove(term);
+		}
+	}
+
+	private void invalidateAll() {
+		BoundedCache<String, Map<String, Integer>> cache = postingsCache;
+		if (cache != null) {
+			cacheGeneration.incrementAndGet();
+			cache.clear();
+		}
 	}
 
 	/**
@@ -48,6 +205,100 @@ public class JedisIndex {
 		return "TermCounter:" + url;
 	}
 
+	/**
+	 * Returns the Redis key for a term's postings (POSTINGS layout).
+	 *
+	 * @return Redis key.
+	 */
+	private String postingsKey(String term) {
+		return "Postings:" + term;
+	}
+
+	// Redis keys of the docId dictionary (POSTINGS layout)
+	private static final String DOC_IDS = "DocIds";			// hash from URL to docId
+	private static final String DOC_URLS = "DocURLs";		// hash from docId to URL
+	private static final String DOC_ID_COUNTER = "DocIdCounter";
+	private static final String DOC_ID_LENGTHS = "DocIdLengths";	// hash from docId to number of terms
+
+	// Redis keys of the statistics used for relevance scoring
+	private static final String DOC_LENGTHS = "DocLengths";	// hash from URL to number of terms
+	private static final String INDEX_STATS = "IndexStats";	// hash with numDocs and totalLength
+
+	/**
+	 * Returns the docId of a URL, assigning the next free one if it has none.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getDocId(String url) {
+		Jedis jedis = pool.borrow();
+		try {
+			return getDocId(jedis, url);
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	/**
+	 * Looks up or assigns a docId inside Redis, so that a crash or another
+	 * client can never leave an id without its URL.
+	 *
+	 * KEYS: the URL -> docId hash, the docId -> URL hash, and the counter.
+	 * ARGV: the URL.
+	 */
+	private static final String DOC_ID_SCRIPT =
+			"local id = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+			"if not id then\n" +
+			"  id = tostring(redis.call('INCR', KEYS[3]))\n" +
+			"  redis.call('HSET', KEYS[1], ARGV[1], id)\n" +
+			"  redis.call('HSET', KEYS[2], id, ARGV[1])\n" +
+			"end\n" +
+			"return id\n";
+
+	private static final String DOC_ID_SCRIPT_SHA = sha1Hex(DOC_ID_SCRIPT);
+
+	private int getDocId(Jedis jedis, String url) {
+		Object id = evalScript(jedis, DOC_ID_SCRIPT, DOC_ID_SCRIPT_SHA,
+				Arrays.asList(DOC_IDS, DOC_URLS, DOC_ID_COUNTER), Collections.singletonList(url));
+		return Integer.parseInt((String) id);
+	}
+
+	/**
+	 * Maps docIds back to URLs with a single HMGET.
+	 *
+	 * @param docIds
+	 * @return Map from docId to URL; unknown ids are left out.
+	 */
+	public Map<Integer, String> getURLs(Collection<Integer> docIds) {
+		Jedis jedis = pool.borrow();
+		try {
+			return getURLs(jedis, docIds);
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	private Map<Integer, String> getURLs(Jedis jedis, Collection<Integer> docIds) {
+		Map<Integer, String> map = new HashMap<>(docIds.size() * 2);
+		if (docIds.isEmpty()) {
+			return map;
+		}
+		String[] fields = new String[docIds.size()];
+		int i = 0;
+		for (Integer docId : docIds) {
+			fields[i++] = docId.toString();
+		}
+		List<String> urls = jedis.hmget(DOC_URLS, fields);
+		i = 0;
+		for (Integer docId : docIds) {
+			String url = urls.get(i++);
+			if (url != null) {
+				map.put(docId, url);
+			}
+		}
+		return map;
+	}
+
 	/**
 	 * Checks whether we have a TermCounter for a given URL.
 	 *
@@ -56,7 +307,12 @@ public class JedisIndex {
 	 */
 	public boolean isIndexed(String url) {
 		String redisKey = termCounterKey(url);
-		return jedis.exists(redisKey);
+		Jedis jedis = pool.borrow();
+		try {
+			return jedis.exists(redisKey);
+		} finally {
+			pool.release(jedis);
+		}
 	}
 	
 	/**
@@ -66,7 +322,18 @@ public class JedisIndex {
 	 * @param tc
 	 */
 	public void add(String term, TermCounter tc) {
-		jedis.sadd(urlSetKey(term), tc.getLabel());
+		Jedis jedis = pool.borrow();
+		try {
+			if (layout == Layout.POSTINGS) {
+				String docId = String.valueOf(getDocId(jedis, tc.getLabel()));
+				jedis.zadd(postingsKey(term), tc.get(term), docId);
+			} else {
+				jedis.sadd(urlSetKey(term), tc.getLabel());
+			}
+		} finally {
+			pool.release(jedis);
+		}
+		invalidate(Collections.singletonList(term));
 	}
 
 	/**
@@ -77,51 +344,382 @@ public class JedisIndex {
 	 */
 	public Set<String> getURLs(String term) {
         // FILL THIS IN!
-		return jedis.smembers(urlSetKey(term));
+		Jedis jedis = pool.borrow();
+		try {
+			if (layout == Layout.POSTINGS) {
+				return new HashSet<String>(getURLs(jedis, getDocCounts(jedis, term).keySet()).values());
+			}
+			return jedis.smembers(urlSetKey(term));
+		} finally {
+			pool.release(jedis);
+		}
 	}
 
     /**
 	 * Looks up a term and returns a map from URL to count.
 	 * index(term -> pages) -> count of each page
+	 *
+	 * If the postings cache is on, the map comes from it when it can,
+	 * and is read-only.
 	 * 
 	 * @param term
 	 * @return Map from URL to count.
 	 */
 	public Map<String, Integer> getCounts(String term) {
-        // FILL THIS IN!
-		Map<String, Integer> map = new HashMap<>();
+		return getCountsAndLengths(term, null);
+	}
 
-		// Set<String> urls = getURLs(term);
-		// for (String url : urls) {
-		// 	Integer count = getCount(url, term); // round-trip to db each time
-		// 	map.put(url, count);
-		// }
+	/**
+	 * Looks up a term, and the lengths of the pages it is on.
+	 *
+	 * The lengths are read in the same round trip as the URLs (POSTINGS)
+	 * or the counts (LEGACY). Only a cached term needs an extra HMGET.
+	 *
+	 * @param term
+	 * @param lengths  Map that the length of each page is added to, or null.
+	 * @return Map from URL to count.
+	 */
+	public Map<String, Integer> getCountsAndLengths(String term, Map<String, Integer> lengths) {
+		BoundedCache<String, Map<String, Integer>> cache = postingsCache;
+		if (cache == null) {
+			return readCounts(term, lengths);
+		}
+		Map<String, Integer> map = cache.get(term);
+		if (map != null) {
+			if (lengths != null) {
+				lengths.putAll(getDocLengths(map.keySet()));
+			}
+			return map;
+		}
+		long start = cacheGeneration.get();
+		map = Collections.unmodifiableMap(readCounts(term, lengths));
+		cache.put(term, map);
+		// a write since we started may have changed the term after we read it
+		if (cacheGeneration.get() != start) {
+			cache.remove(term);
+		}
+		return map;
+	}
+
+	private Map<String, Integer> readCounts(String term, Map<String, Integer> lengths) {
+		Jedis jedis = pool.borrow();
+		try {
+			if (layout == Layout.POSTINGS) {
+				return readPostings(jedis, term, lengths);
+			}
+			return getCountsPipelined(jedis, term, batchSize, lengths);
+		} finally {
+			pool.release(jedis);
+		}
+	}
 
-		/* faster version. not using getCount method */
+	/**
+	 * Reads a term's postings, then the URLs of the docIds, and their
+	 * lengths if asked, in one pipelined round trip.
+	 */
+	private Map<String, Integer> readPostings(Jedis jedis, String term, Map<String, Integer> lengths) {
+		Map<Integer, Integer> docCounts = getDocCounts(jedis, term);
+		Map<String, Integer> map = new HashMap<>(docCounts.size() * 2);
+		if (docCounts.isEmpty()) {
+			return map;
+		}
+		String[] fields = new String[docCounts.size()];
+		int i = 0;
+		for (Integer docId : docCounts.keySet()) {
+			fields[i++] = docId.toString();
+		}
+		Pipeline p = jedis.pipelined();
+		Response<List<String>> urls = p.hmget(DOC_URLS, fields);
+		Response<List<String>> docLengths = lengths == null ? null : p.hmget(DOC_ID_LENGTHS, fields);
+		p.sync();
 
-		// 1. get pages of the term (single/atomic transaction)
-		Set<String> urls = getURLs(term); // Set traversal order is retained as long as it's unchanged
+		// pages indexed before lengths were kept by docId
+		List<String> unknown = new ArrayList<>();
+		i = 0;
+		for (Integer count : docCounts.values()) {
+			// skip ids whose URL is missing, as the query script does
+			String url = urls.get().get(i);
+			if (url != null) {
+				map.put(url, count);
+				if (lengths != null) {
+					String length = docLengths.get().get(i);
+					if (length == null) {
+						unknown.add(url);
+					} else {
+						lengths.put(url, Integer.parseInt(length));
+					}
+				}
+			}
+			i++;
+		}
+		if (!unknown.isEmpty()) {
+			lengths.putAll(getDocLengths(jedis, unknown));
+		}
+		return map;
+	}
 
-		// 2. get count for each page (multiple transactions)
-		// transaction to perform all lookups
-		Transaction t = jedis.multi();
+	/**
+	 * Looks up the counts of `term` on some pages only.
+	 *
+	 * The counts are read from the pages' TermCounter hashes, which both
+	 * layouts keep, with one pipelined round trip per `batchSize` pages.
+	 *
+	 * @param term
+	 * @param urls
+	 * @return Map from URL to count, for the pages that contain `term`.
+	 */
+	public Map<String, Integer> getCounts(String term, Collection<String> urls) {
+		Map<String, Integer> map = new HashMap<>(urls.size() * 2);
+		List<String> batch = new ArrayList<>(Math.min(urls.size(), batchSize));
+		Jedis jedis = pool.borrow();
+		try {
+			for (String url : urls) {
+				batch.add(url);
+				if (batch.size() == batchSize) {
+					getCounts(jedis, term, batch, map);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				getCounts(jedis, term, batch, map);
+			}
+		} finally {
+			pool.release(jedis);
+		}
+		return map;
+	}
+
+	private void getCounts(Jedis jedis, String term, List<String> urls, Map<String, Integer> map) {
+		Pipeline p = jedis.pipelined();
+		List<Response<String>> counts = new ArrayList<>(urls.size());
 		for (String url : urls) {
-			String redisKey = termCounterKey(url);
-			t.hget(redisKey, term);
+			counts.add(p.hget(termCounterKey(url), term));
 		}
-		List<Object> counts = t.exec();
-		
-		// iterate the results and make the map
+		p.sync();
+
 		int i = 0;
 		for (String url : urls) {
-			System.out.println(url);
-			Integer count = Integer.valueOf((String) counts.get(i++));
-			map.put(url, count);
+			String count = counts.get(i++).get();
+			if (count != null) {
+				map.put(url, Integer.valueOf(count));
+			}
+		}
+	}
+
+	/**
+	 * Reads the postings of a term with a single ZRANGE (POSTINGS layout).
+	 *
+	 * Callers that only need some of the pages, like the top results of a
+	 * query, can rank on docIds and map just those back with getURLs.
+	 *
+	 * @param term
+	 * @return Map from docId to count.
+	 */
+	public Map<Integer, Integer> getDocCounts(String term) {
+		Jedis jedis = pool.borrow();
+		try {
+			return getDocCounts(jedis, term);
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	private Map<Integer, Integer> getDocCounts(Jedis jedis, String term) {
+		Set<Tuple> tuples = jedis.zrangeWithScores(postingsKey(term), 0, -1);
+		Map<Integer, Integer> map = new HashMap<>(tuples.size() * 2);
+		for (Tuple tuple : tuples) {
+			map.put(Integer.valueOf(tuple.getElement()), (int) tuple.getScore());
+		}
+		return map;
+	}
+
+	/**
+	 * Looks up a term and returns a map from URL to count, using pipelined batches.
+	 * Reads the LEGACY layout.
+	 *
+	 * The URLSet is read with SSCAN, `batchSize` members at a time, and the
+	 * counts for each batch are fetched with one pipelined round trip, so a
+	 * term with n pages costs about 2n/batchSize round trips instead of n,
+	 * and Redis is never blocked by one long transaction.
+	 *
+	 * @param term
+	 * @param batchSize  Number of URLs looked up per round trip.
+	 * @return Map from URL to count.
+	 */
+	public Map<String, Integer> getCountsPipelined(String term, int batchSize) {
+		Jedis jedis = pool.borrow();
+		try {
+			return getCountsPipelined(jedis, term, batchSize, null);
+		} finally {
+			pool.release(jedis);
 		}
+	}
+
+	/**
+	 * Reads the counts, and the page lengths if `lengths` is not null,
+	 * in the same round trips.
+	 */
+	private Map<String, Integer> getCountsPipelined(Jedis jedis, String term, int batchSize,
+			Map<String, Integer> lengths) {
+		Map<String, Integer> map = new HashMap<>();
+		ScanParams params = new ScanParams().count(batchSize);
+		String cursor = ScanParams.SCAN_POINTER_START;
+
+		do {
+			// 1. get the next batch of pages of the term
+			ScanResult<String> page = jedis.sscan(urlSetKey(term), cursor, params);
+			cursor = page.getStringCursor();
+			List<String> urls = page.getResult();
+
+			// 2. get the counts for the whole batch in one round trip
+			Pipeline p = jedis.pipelined();
+			List<Response<String>> counts = new ArrayList<>(urls.size());
+			for (String url : urls) {
+				counts.add(p.hget(termCounterKey(url), term));
+			}
+			Response<List<String>> docLengths = null;
+			if (lengths != null && !urls.isEmpty()) {
+				docLengths = p.hmget(DOC_LENGTHS, urls.toArray(new String[0]));
+			}
+			p.sync();
+
+			int i = 0;
+			for (String url : urls) {
+				String count = counts.get(i).get();
+				// skip pages whose TermCounter is gone (deleted or being replaced)
+				if (count != null) {
+					map.put(url, Integer.valueOf(count));
+					if (docLengths != null) {
+						String length = docLengths.get().get(i);
+						lengths.put(url, length == null ? 0 : Integer.parseInt(length));
+					}
+				}
+				i++;
+			}
+		} while (!cursor.equals(ScanParams.SCAN_POINTER_START));
 
 		return map;
 	}
 
+	/**
+	 * Combines the postings of several terms inside Redis (POSTINGS layout).
+	 *
+	 * KEYS: postings of the included terms, postings of the excluded terms,
+	 * a scratch key, and the docId -> URL hash.
+	 * ARGV: "and" or "or", the number of included terms, and k.
+	 *
+	 * The included postings are intersected or unioned with their counts
+	 * summed, excluded pages are removed, and only the top k (URL, score)
+	 * pairs are sent back.
+	 */
+	private static final String QUERY_SCRIPT =
+			"local op, n, k = ARGV[1], tonumber(ARGV[2]), tonumber(ARGV[3])\n" +
+			"local tmp, docUrls = KEYS[#KEYS - 1], KEYS[#KEYS]\n" +
+			"local cmd = 'ZUNIONSTORE'\n" +
+			"if op == 'and' then cmd = 'ZINTERSTORE' end\n" +
+			"redis.call(cmd, tmp, n, unpack(KEYS, 1, n))\n" +
+			"for i = n + 1, #KEYS - 2 do\n" +
+			"  local members = redis.call('ZRANGE', KEYS[i], 0, -1)\n" +
+			"  for j = 1, #members, 1000 do\n" +
+			"    redis.call('ZREM', tmp, unpack(members, j, math.min(j + 999, #members)))\n" +
+			"  end\n" +
+			"end\n" +
+			"local top = redis.call('ZREVRANGE', tmp, 0, k - 1, 'WITHSCORES')\n" +
+			"redis.call('DEL', tmp)\n" +
+			"local result = {}\n" +
+			"for i = 1, #top, 2 do\n" +
+			"  local url = redis.call('HGET', docUrls, top[i])\n" +
+			"  if url then\n" +
+			"    result[#result + 1] = url\n" +
+			"    result[#result + 1] = top[i + 1]\n" +
+			"  end\n" +
+			"end\n" +
+			"return result\n";
+
+	private static final String QUERY_SCRIPT_SHA = sha1Hex(QUERY_SCRIPT);
+
+	// scratch key for query results; scripts run atomically, so one is enough
+	private static final String QUERY_TMP = "QueryTmp";
+
+	/**
+	 * Runs a boolean query inside Redis and returns only the best pages.
+	 *
+	 * The postings of `terms` are intersected (matchAll) or unioned, with
+	 * each page scored by the sum of its raw counts, and pages that contain
+	 * any of the `excluded` terms are dropped. Nothing but the top `k`
+	 * results crosses the network. No Scorer is applied, since the
+	 * statistics it needs are not in the postings.
+	 *
+	 * @param matchAll  true for AND, false for OR.
+	 * @param terms     At least one term.
+	 * @param excluded  Terms whose pages are removed from the result.
+	 * @param k         Number of results; 0 for all of them.
+	 * @return Map from URL to score, in descending order of score.
+	 */
+	public Map<String, Double> query(boolean matchAll, List<String> terms, List<String> excluded, int k) {
+		if (layout != Layout.POSTINGS) {
+			throw new IllegalStateException("Server-side queries need the POSTINGS layout");
+		}
+		if (terms.isEmpty()) {
+			throw new IllegalArgumentException("A query needs at least one term");
+		}
+		List<String> keys = new ArrayList<>(terms.size() + excluded.size() + 2);
+		for (String term : terms) {
+			keys.add(postingsKey(term));
+		}
+		for (String term : excluded) {
+			keys.add(postingsKey(term));
+		}
+		keys.add(QUERY_TMP);
+		keys.add(DOC_URLS);
+		List<String> args = new ArrayList<>(3);
+		args.add(matchAll ? "and" : "or");
+		args.add(String.valueOf(terms.size()));
+		args.add(String.valueOf(k));
+
+		List<?> reply;
+		Jedis jedis = pool.borrow();
+		try {
+			reply = (List<?>) evalScript(jedis, QUERY_SCRIPT, QUERY_SCRIPT_SHA, keys, args);
+		} finally {
+			pool.release(jedis);
+		}
+
+		Map<String, Double> map = new LinkedHashMap<>(reply.size());
+		for (int i = 0; i < reply.size(); i += 2) {
+			map.put((String) reply.get(i), Double.valueOf((String) reply.get(i + 1)));
+		}
+		return map;
+	}
+
+	/**
+	 * Runs a script by hash, sending the source only if Redis does not
+	 * have it cached yet.
+	 */
+	private static Object evalScript(Jedis jedis, String script, String sha, List<String> keys, List<String> args) {
+		try {
+			return jedis.evalsha(sha, keys, args);
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+				throw e;
+			}
+			return jedis.eval(script, keys, args);
+		}
+	}
+
+	private static String sha1Hex(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
     /**
 	 * Returns the number of times the given term appears at the given URL.
 	 * 
@@ -132,8 +730,13 @@ public class JedisIndex {
 	public Integer getCount(String url, String term) {
         // FILL THIS IN!
 		String redisKey = termCounterKey(url);
-		String count = jedis.hget(redisKey, term);
-		return Integer.valueOf(count);
+		Jedis jedis = pool.borrow();
+		try {
+			String count = jedis.hget(redisKey, term);
+			return Integer.valueOf(count);
+		} finally {
+			pool.release(jedis);
+		}
 	}
 
 	/**
@@ -169,25 +772,397 @@ public class JedisIndex {
 		tc.processElements(paragraphs);
 
 		// 2. push it to Redis
-		Transaction t = jedis.multi();
-		pushTermCounterToRedis(tc, t);
-		t.exec();
+		indexPage(tc);
+	}
+
+	/**
+	 * Adds the counts in a TermCounter, labeled with its URL, to the index.
+	 *
+	 * @param tc
+	 */
+	public void indexPage(TermCounter tc) {
+		String url = tc.getLabel();
+
+		// postings refer to the page by docId, which is assigned up front
+		Jedis jedis = pool.borrow();
+		try {
+			String docId = layout == Layout.POSTINGS ? String.valueOf(getDocId(jedis, url)) : null;
+			String hashname = termCounterKey(url);
+
+			// diff against the page as it was last indexed; if another client
+			// changes it between the read and the write, EXEC fails and we retry
+			List<Object> result;
+			Collection<String> touched;
+			do {
+				jedis.watch(hashname);
+				Map<String, String> old = jedis.hgetAll(hashname);
+				String oldLength = jedis.hget(DOC_LENGTHS, url);
+				Transaction t = jedis.multi();
+				touched = pushTermCounterToRedis(tc, old, oldLength, docId, t);
+				result = t.exec();
+			} while (result == null);
+			invalidate(touched);
+		} finally {
+			pool.release(jedis);
+		}
 	}
 
-	private void pushTermCounterToRedis(TermCounter tc, Transaction t) {
+	/**
+	 * Writes the difference between a page's old and new term counts.
+	 *
+	 * Unchanged counts are not written again, and the page is removed
+	 * from the URLSet or postings of terms it no longer contains.
+	 *
+	 * @param tc         New counts for the page.
+	 * @param old        Counts currently in Redis; empty if the page is new.
+	 * @param oldLength  The page's length in DocLengths, or null.
+	 * @param docId      The page's docId (POSTINGS layout only).
+	 * @param t
+	 * @return The terms whose counts were changed, added or removed.
+	 */
+	private Collection<String> pushTermCounterToRedis(TermCounter tc, Map<String, String> old, String oldLength,
+			String docId, Transaction t) {
 		String url = tc.getLabel();
 		String hashname = termCounterKey(url);
 
-		// if this page has already been indexed, delete the old hash (replace to new one)
-		t.del(hashname);
-		
+		Map<String, String> changed = new HashMap<>();
 		for (String term : tc.keySet()) {
-			Integer count = tc.get(term);
-			t.hset(hashname, term, count.toString()); // push TermCounter(the page)
-			t.sadd(urlSetKey(term), url); // push the page to URLSet(index/register terms in the page) 
+			String count = tc.get(term).toString();
+			String oldCount = old.get(term);
+			if (count.equals(oldCount)) {
+				continue;
+			}
+			changed.put(term, count);
+			if (layout == Layout.POSTINGS) {
+				t.zadd(postingsKey(term), Double.parseDouble(count), docId); // push the page and its count to the term's postings
+			} else if (oldCount == null) {
+				t.sadd(urlSetKey(term), url); // push the page to URLSet(index/register terms in the page) 
+			}
+		}
+		if (!changed.isEmpty()) {
+			t.hmset(hashname, changed); // push TermCounter(the page)
+		}
+
+		// terms that were on the old version of the page but not on the new one
+		List<String> dropped = new ArrayList<>();
+		for (String term : old.keySet()) {
+			if (!tc.keySet().contains(term)) {
+				dropped.add(term);
+				if (layout == Layout.POSTINGS) {
+					t.zrem(postingsKey(term), docId);
+				} else {
+					t.srem(urlSetKey(term), url);
+				}
+			}
+		}
+		if (!dropped.isEmpty()) {
+			t.hdel(hashname, dropped.toArray(new String[0]));
+		}
+
+		// keep the statistics used for relevance scoring up to date
+		// the old length comes from DocLengths, since the counts can include
+		// shingles that a page's length leaves out
+		int length = tc.size();
+		int previous = 0;
+		if (oldLength != null) {
+			previous = Integer.parseInt(oldLength);
+		} else {
+			// indexed before page lengths were kept
+			previous = pageLength(old);
+		}
+		// a page counts while it has terms, the same as its TermCounter hash exists
+		boolean wasCounted = !old.isEmpty();
+		boolean isCounted = !tc.keySet().isEmpty();
+		if (!wasCounted && isCounted) {
+			t.hincrBy(INDEX_STATS, "numDocs", 1);
+		} else if (wasCounted && !isCounted) {
+			t.hincrBy(INDEX_STATS, "numDocs", -1);
+		}
+		if (isCounted) {
+			t.hset(DOC_LENGTHS, url, String.valueOf(length));
+		} else {
+			t.hdel(DOC_LENGTHS, url);
+		}
+		// by docId too, so lookups get the lengths along with the URLs
+		if (docId != null) {
+			if (isCounted) {
+				t.hset(DOC_ID_LENGTHS, docId, String.valueOf(length));
+			} else {
+				t.hdel(DOC_ID_LENGTHS, docId);
+			}
+		}
+		t.hincrBy(INDEX_STATS, "totalLength", length - previous);
+
+		List<String> touched = new ArrayList<>(changed.keySet());
+		touched.addAll(dropped);
+		return touched;
+	}
+
+	/**
+	 * Returns the terms on a page, from its TermCounter hash.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Set<String> getTerms(String url) {
+		Jedis jedis = pool.borrow();
+		try {
+			return jedis.hkeys(termCounterKey(url));
+		} finally {
+			pool.release(jedis);
 		}
 	}
 
+	/**
+	 * Returns the number of pages that contain `term`.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getDocFreq(String term) {
+		Jedis jedis = pool.borrow();
+		try {
+			if (layout == Layout.POSTINGS) {
+				return jedis.zcard(postingsKey(term)).intValue();
+			}
+			return jedis.scard(urlSetKey(term)).intValue();
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	/**
+	 * Returns the number of terms on a page, or 0 if it is not indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getDocLength(String url) {
+		return getDocLengths(Collections.singletonList(url)).get(url);
+	}
+
+	/**
+	 * Returns the number of terms on each of several pages, with one HMGET.
+	 *
+	 * @param urls
+	 * @return Map from URL to number of terms; 0 for pages not indexed.
+	 */
+	public Map<String, Integer> getDocLengths(Collection<String> urls) {
+		if (urls.isEmpty()) {
+			return new HashMap<>();
+		}
+		Jedis jedis = pool.borrow();
+		try {
+			return getDocLengths(jedis, urls);
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	private Map<String, Integer> getDocLengths(Jedis jedis, Collection<String> urls) {
+		Map<String, Integer> map = new HashMap<>(urls.size() * 2);
+		List<String> lengths = jedis.hmget(DOC_LENGTHS, urls.toArray(new String[0]));
+		int i = 0;
+		for (String url : urls) {
+			String length = lengths.get(i++);
+			map.put(url, length == null ? 0 : Integer.parseInt(length));
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the number of pages in the index.
+	 *
+	 * @return
+	 */
+	public int numDocs() {
+		return (int) getStat("numDocs");
+	}
+
+	/**
+	 * Returns the average number of terms per page.
+	 *
+	 * @return
+	 */
+	public double avgDocLength() {
+		return getStats().getAvgDocLength();
+	}
+
+	/**
+	 * Returns the number of pages and their average length, with one HMGET.
+	 *
+	 * indexPage updates both in the same transaction, so they agree.
+	 *
+	 * @return
+	 */
+	public CorpusStats getStats() {
+		List<String> stats;
+		Jedis jedis = pool.borrow();
+		try {
+			stats = jedis.hmget(INDEX_STATS, "numDocs", "totalLength");
+		} finally {
+			pool.release(jedis);
+		}
+		long numDocs = stats.get(0) == null ? 0 : Long.parseLong(stats.get(0));
+		long totalLength = stats.get(1) == null ? 0 : Long.parseLong(stats.get(1));
+		return new CorpusStats((int) numDocs, numDocs == 0 ? 0 : (double) totalLength / numDocs);
+	}
+
+	private long getStat(String field) {
+		Jedis jedis = pool.borrow();
+		try {
+			String value = jedis.hget(INDEX_STATS, field);
+			return value == null ? 0 : Long.parseLong(value);
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	/**
+	 * Adds up the counts in a TermCounter hash, leaving out shingles, which
+	 * are the only terms with spaces in them.
+	 */
+	private static int pageLength(Map<String, String> counts) {
+		int length = 0;
+		for (Map.Entry<String, String> entry : counts.entrySet()) {
+			if (entry.getKey().indexOf(' ') < 0) {
+				length += Integer.parseInt(entry.getValue());
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Recomputes the scoring statistics from the TermCounter hashes.
+	 *
+	 * indexPage keeps them current; this is for indexes built before the
+	 * statistics existed, or repaired by hand.
+	 */
+	public void rebuildStats() {
+		long numDocs = 0;
+		long totalLength = 0;
+		for (String key : scanTermCounterKeys()) {
+			String url = key.substring("TermCounter:".length());
+			Jedis jedis = pool.borrow();
+			try {
+				int length = pageLength(jedis.hgetAll(key));
+				jedis.hset(DOC_LENGTHS, url, String.valueOf(length));
+				String docId = jedis.hget(DOC_IDS, url);
+				if (docId != null) {
+					jedis.hset(DOC_ID_LENGTHS, docId, String.valueOf(length));
+				}
+				numDocs++;
+				totalLength += length;
+			} finally {
+				pool.release(jedis);
+			}
+		}
+		Jedis jedis = pool.borrow();
+		try {
+			jedis.hset(INDEX_STATS, "numDocs", String.valueOf(numDocs));
+			jedis.hset(INDEX_STATS, "totalLength", String.valueOf(totalLength));
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	/**
+	 * Converts the data in Redis to another layout.
+	 *
+	 * TermCounter hashes are shared by both layouts and left alone;
+	 * each term's URLSet is replaced by a sorted set of postings, or the
+	 * other way around. Pages get docIds as they are first seen, and the
+	 * dictionary is kept when migrating back, so ids stay stable.
+	 * Terms are converted one at a time, so the index stays readable
+	 * in the old layout until each term is moved.
+	 *
+	 * @param target
+	 */
+	public void migrate(Layout target) {
+		if (target == layout) {
+			return;
+		}
+		if (target == Layout.POSTINGS) {
+			// each URL shows up under many terms; look its docId up only once
+			Map<String, String> docIds = new HashMap<>();
+			for (String key: scanURLSetKeys()) {
+				Jedis jedis = pool.borrow();
+				try {
+					migrateToPostings(jedis, key, docIds);
+				} finally {
+					pool.release(jedis);
+				}
+			}
+			copyDocLengths(docIds);
+		} else {
+			for (String key: scanPostingsKeys()) {
+				Jedis jedis = pool.borrow();
+				try {
+					migrateToLegacy(jedis, key);
+				} finally {
+					pool.release(jedis);
+				}
+			}
+		}
+		layout = target;
+		invalidateAll();
+	}
+
+	private void migrateToPostings(Jedis jedis, String key, Map<String, String> docIds) {
+		String term = key.substring("URLSet:".length());
+		Map<String, Integer> counts = getCountsPipelined(jedis, term, batchSize, null);
+		Map<String, Double> scores = new HashMap<>(counts.size() * 2);
+		for (Entry<String, Integer> entry: counts.entrySet()) {
+			String docId = docIds.get(entry.getKey());
+			if (docId == null) {
+				docId = String.valueOf(getDocId(jedis, entry.getKey()));
+				docIds.put(entry.getKey(), docId);
+			}
+			scores.put(docId, entry.getValue().doubleValue());
+		}
+
+		Transaction t = jedis.multi();
+		if (!scores.isEmpty()) {
+			t.zadd(postingsKey(term), scores);
+		}
+		t.del(key);
+		t.exec();
+	}
+
+	/**
+	 * Copies the lengths of the pages in DocLengths to their docIds.
+	 */
+	private void copyDocLengths(Map<String, String> docIds) {
+		if (docIds.isEmpty()) {
+			return;
+		}
+		Jedis jedis = pool.borrow();
+		try {
+			Map<String, Integer> lengths = getDocLengths(jedis, docIds.keySet());
+			Pipeline p = jedis.pipelined();
+			for (Entry<String, Integer> entry : lengths.entrySet()) {
+				if (entry.getValue() > 0) {
+					p.hset(DOC_ID_LENGTHS, docIds.get(entry.getKey()), entry.getValue().toString());
+				}
+			}
+			p.sync();
+		} finally {
+			pool.release(jedis);
+		}
+	}
+
+	private void migrateToLegacy(Jedis jedis, String key) {
+		String term = key.substring("Postings:".length());
+		Collection<String> urls = getURLs(jedis, getDocCounts(jedis, term).keySet()).values();
+
+		Transaction t = jedis.multi();
+		if (!urls.isEmpty()) {
+			t.sadd(urlSetKey(term), urls.toArray(new String[0]));
+		}
+		t.del(key);
+		t.exec();
+	}
+
 	/**
 	 * Prints the contents of the index.
 	 *
@@ -210,24 +1185,48 @@ public class JedisIndex {
 	/**
 	 * Returns the set of terms that have been indexed.
 	 *
-	 * Should be used for development and testing, not production.
+	 * Should be used for development and testing, not production;
+	 * use scanTerms to walk the terms without holding them all.
 	 *
 	 * @return
 	 */
 	public Set<String> termSet() {
-		Set<String> keys = urlSetKeys();
 		Set<String> terms = new HashSet<String>();
-		for (String key: keys) {
-			String[] array = key.split(":");
-			if (array.length < 2) {
-				terms.add("");
-			} else {
-				terms.add(array[1]);
-			}
+		for (String term: scanTerms()) {
+			terms.add(term);
 		}
 		return terms;
 	}
 
+	/**
+	 * Streams the terms that have been indexed, one SCAN batch at a time.
+	 *
+	 * Like SCAN itself, a term may show up more than once.
+	 *
+	 * @return
+	 */
+	public Iterable<String> scanTerms() {
+		final String prefix = layout == Layout.POSTINGS ? "Postings:" : "URLSet:";
+		final Iterable<String> keys = scanKeys(prefix + "*");
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<String> it = keys.iterator();
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return it.next().substring(prefix.length());
+					}
+				};
+			}
+		};
+	}
+
 	/**
 	 * Returns URLSet keys for the terms that have been indexed.
 	 *
@@ -236,7 +1235,18 @@ public class JedisIndex {
 	 * @return
 	 */
 	public Set<String> urlSetKeys() {
-		return jedis.keys("URLSet:*");
+		return keySet(scanURLSetKeys());
+	}
+
+	/**
+	 * Returns Postings keys for the terms that have been indexed.
+	 *
+	 * Should be used for development and testing, not production.
+	 *
+	 * @return
+	 */
+	public Set<String> postingsKeys() {
+		return keySet(scanPostingsKeys());
 	}
 
 	/**
@@ -247,7 +1257,139 @@ public class JedisIndex {
 	 * @return
 	 */
 	public Set<String> termCounterKeys() {
-		return jedis.keys("TermCounter:*");
+		return keySet(scanTermCounterKeys());
+	}
+
+	private static Set<String> keySet(Iterable<String> keys) {
+		Set<String> set = new HashSet<String>();
+		for (String key: keys) {
+			set.add(key);
+		}
+		return set;
+	}
+
+	/**
+	 * Streams URLSet keys.
+	 *
+	 * @return
+	 */
+	public Iterable<String> scanURLSetKeys() {
+		return scanKeys("URLSet:*");
+	}
+
+	/**
+	 * Streams Postings keys.
+	 *
+	 * @return
+	 */
+	public Iterable<String> scanPostingsKeys() {
+		return scanKeys("Postings:*");
+	}
+
+	/**
+	 * Streams TermCounter keys.
+	 *
+	 * @return
+	 */
+	public Iterable<String> scanTermCounterKeys() {
+		return scanKeys("TermCounter:*");
+	}
+
+	/**
+	 * Streams the keys that match `pattern`.
+	 *
+	 * Unlike KEYS, which blocks the server while it walks the whole
+	 * keyspace and sends back every match at once, this uses SCAN to fetch
+	 * about `batchSize` keys per round trip, and only when the iterator
+	 * runs out. Keys that exist for the whole scan are returned at least
+	 * once; keys added or deleted meanwhile may or may not be.
+	 *
+	 * @param pattern  Glob-style pattern, as for KEYS.
+	 * @return
+	 */
+	public Iterable<String> scanKeys(final String pattern) {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyScanner(pattern);
+			}
+		};
+	}
+
+	/**
+	 * Iterates the keys that match a pattern, one SCAN batch at a time.
+	 */
+	private class KeyScanner implements Iterator<String> {
+		private final ScanParams params;
+		private String cursor = ScanParams.SCAN_POINTER_START;
+		private Iterator<String> batch = Collections.<String>emptyList().iterator();
+		private boolean finished = false;
+
+		KeyScanner(String pattern) {
+			params = new ScanParams().match(pattern).count(batchSize);
+		}
+
+		@Override
+		public boolean hasNext() {
+			// a batch can come back empty even though the scan is not finished
+			while (!batch.hasNext() && !finished) {
+				ScanResult<String> page;
+				Jedis jedis = pool.borrow();
+				try {
+					page = jedis.scan(cursor, params);
+				} finally {
+					pool.release(jedis);
+				}
+				cursor = page.getStringCursor();
+				finished = cursor.equals(ScanParams.SCAN_POINTER_START);
+				batch = page.getResult().iterator();
+			}
+			return batch.hasNext();
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.next();
+		}
+	}
+
+	/**
+	 * Deletes the keys that match `pattern`.
+	 *
+	 * Keys are deleted as they are scanned, with one DEL per `batchSize`
+	 * keys, so client memory stays bounded and other clients are never
+	 * blocked for long.
+	 *
+	 * @param pattern
+	 * @return Number of keys deleted.
+	 */
+	public long deleteKeys(String pattern) {
+		long deleted = 0;
+		List<String> batch = new ArrayList<String>(batchSize);
+		for (String key: scanKeys(pattern)) {
+			batch.add(key);
+			if (batch.size() == batchSize) {
+				deleted += delete(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			deleted += delete(batch);
+		}
+		invalidateAll();
+		return deleted;
+	}
+
+	private long delete(List<String> keys) {
+		Jedis jedis = pool.borrow();
+		try {
+			return jedis.del(keys.toArray(new String[0]));
+		} finally {
+			pool.release(jedis);
+		}
 	}
 
 	/**
@@ -258,28 +1400,29 @@ public class JedisIndex {
 	 * @return
 	 */
 	public void deleteURLSets() {
-		Set<String> keys = urlSetKeys();
-		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
-		}
-		t.exec();
+		deleteKeys("URLSet:*");
 	}
 
 	/**
-	 * Deletes all URLSet objects from the database.
+	 * Deletes all Postings objects from the database.
+	 *
+	 * Should be used for development and testing, not production.
+	 *
+	 * @return
+	 */
+	public void deletePostings() {
+		deleteKeys("Postings:*");
+	}
+
+	/**
+	 * Deletes all TermCounter objects from the database.
 	 *
 	 * Should be used for development and testing, not production.
 	 *
 	 * @return
 	 */
 	public void deleteTermCounters() {
-		Set<String> keys = termCounterKeys();
-		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
-		}
-		t.exec();
+		deleteKeys("TermCounter:*");
 	}
 
 	/**
@@ -290,12 +1433,7 @@ public class JedisIndex {
 	 * @return
 	 */
 	public void deleteAllKeys() {
-		Set<String> keys = jedis.keys("*");
-		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
-		}
-		t.exec();
+		deleteKeys("*");
 	}
 
 	/**
@@ -305,6 +1443,7 @@ public class JedisIndex {
 	public static void main(String[] args) throws IOException {
 		Jedis jedis = JedisMaker.make();
 		JedisIndex index = new JedisIndex(jedis);
+		index.setPostingsCache(64 << 20, 60, TimeUnit.SECONDS);
 
 		//index.deleteTermCounters();
 		//index.deleteURLSets();
@@ -315,6 +1454,8 @@ public class JedisIndex {
 		for (Entry<String, Integer> entry: map.entrySet()) {
 			System.out.println(entry);
 		}
+		index.getCounts("the");
+		System.out.println(index.getPostingsCache());
 	}
 
 	/**
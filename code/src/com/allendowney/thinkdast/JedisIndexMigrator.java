@@ -0,0 +1,38 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Command-line tool that converts a JedisIndex between storage layouts.
+ *
+ * Usage: JedisIndexMigrator postings|legacy
+ *
+ */
+public class JedisIndexMigrator {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: JedisIndexMigrator postings|legacy");
+			return;
+		}
+		JedisIndex.Layout target = JedisIndex.Layout.valueOf(args[0].toUpperCase());
+		JedisIndex.Layout source = target == JedisIndex.Layout.POSTINGS ?
+				JedisIndex.Layout.LEGACY : JedisIndex.Layout.POSTINGS;
+
+		Jedis jedis = JedisMaker.make();
+		JedisIndex index = new JedisIndex(jedis, source);
+
+		long start = System.currentTimeMillis();
+		index.migrate(target);
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println("Migrated " + source + " -> " + target + " in " + elapsed + " ms");
+
+		jedis.close();
+	}
+}
@@ -0,0 +1,83 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Tests that JedisIndex keeps its scoring statistics right when pages are
+ * re-indexed. Uses its own URLs, so it needs Redis but not the network.
+ *
+ */
+public class JedisIndexStatsTest {
+
+	private static final String URL = "https://en.wikipedia.org/wiki/JedisIndexStatsTest";
+
+	private Jedis jedis;
+	private JedisIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		jedis = JedisMaker.make();
+		index = new JedisIndex(jedis);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		index.indexPage(new TermCounter(URL));
+		jedis.close();
+	}
+
+	private long totalLength() {
+		return Math.round(index.avgDocLength() * index.numDocs());
+	}
+
+	@Test
+	public void testReindexWithShingles() {
+		index.indexPage(new TermCounter(URL));
+		long total = totalLength();
+
+		for (int i = 0; i < 3; i++) {
+			TermCounter tc = new TermCounter(URL);
+			tc.setAnalyzer(new Analyzer(Analyzer.ENGLISH_STOP_WORDS, true, 2));
+			tc.processText("the java virtual machine runs java");
+			index.indexPage(tc);
+
+			// shingles are stored with the counts, but not in the length
+			assertThat(index.getDocLength(URL), is(5));
+			assertThat(totalLength(), is(total + 5));
+		}
+	}
+
+	@Test
+	public void testReindexEmpty() {
+		index.indexPage(new TermCounter(URL));
+		int numDocs = index.numDocs();
+		long total = totalLength();
+
+		TermCounter tc = new TermCounter(URL);
+		tc.processText("java virtual machine");
+		index.indexPage(tc);
+		assertThat(index.numDocs(), is(numDocs + 1));
+		assertThat(totalLength(), is(total + 3));
+		assertThat(index.getTerms(URL).contains("virtual"), is(true));
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		assertThat(index.getCountsAndLengths("virtual", lengths).get(URL), is(1));
+		assertThat(lengths.get(URL), is(3));
+
+		// a page re-indexed with no terms no longer counts
+		index.indexPage(new TermCounter(URL));
+		assertThat(index.numDocs(), is(numDocs));
+		assertThat(totalLength(), is(total));
+		assertThat(index.getDocLength(URL), is(0));
+		assertThat(index.getTerms(URL).isEmpty(), is(true));
+	}
+}
@@ -5,6 +5,7 @@ import static org.hamcrest.CoreMatchers.*;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.jsoup.select.Elements;
 import org.junit.After;
@@ -69,4 +70,22 @@ public class JedisIndexTest {
 		assertThat(map.get(url1), is(208));
 		assertThat(map.get(url2), is(228));
 	}
+
+	/**
+	 * Test method for {@link JedisIndex#setPostingsCache(long, long, TimeUnit)}.
+	 */
+	@Test
+	public void testPostingsCache() {
+		index.setPostingsCache(1 << 20, 1, TimeUnit.MINUTES);
+		Map<String, Integer> map = index.getCounts("the");
+		assertThat(index.getCounts("the"), is(sameInstance(map)));
+		assertThat(index.getPostingsCache().hitCount(), is(1L));
+
+		// indexing a page through the index drops the terms it changes
+		TermCounter tc = new TermCounter(url2);
+		tc.put("the", 1);
+		index.indexPage(tc);
+		assertThat(index.getCounts("the").get(url2), is(1));
+		assertThat(index.getCounts("the").get(url1), is(208));
+	}
 }
@@ -15,6 +15,9 @@ import redis.clients.jedis.Jedis;
 
 public class JedisMaker {
 
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 6379;
+
 	/**
 	 * Make a Jedis object and authenticate it.
 	 *
@@ -65,8 +68,8 @@ public class JedisMaker {
 		String auth = array[1];
 		*/
 
-		String host = "127.0.0.1";
-		int port = 6379;
+		String host = HOST;
+		int port = PORT;
 
 		// connect to the server
 		Jedis jedis = new Jedis(host, port);
@@ -87,6 +90,17 @@ public class JedisMaker {
 	}
 
 
+	/**
+	 * Make a pool of connections that can be shared by threads.
+	 *
+	 * @param maxConnections
+	 * @return
+	 */
+	public static JedisConnectionPool makePool(int maxConnections) {
+		return new JedisConnectionPool(HOST, PORT, maxConnections);
+	}
+
+
 	/**
 	 *
 	 */
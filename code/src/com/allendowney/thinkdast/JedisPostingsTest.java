@@ -0,0 +1,167 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Tests JedisIndex with the POSTINGS layout. Uses its own URLs and terms,
+ * so it needs Redis but not the network.
+ *
+ */
+public class JedisPostingsTest {
+
+	private static final String URL1 = "https://en.wikipedia.org/wiki/JedisPostingsTest_1";
+	private static final String URL2 = "https://en.wikipedia.org/wiki/JedisPostingsTest_2";
+	private static final String URL3 = "https://en.wikipedia.org/wiki/JedisPostingsTest_3";
+
+	private Jedis jedis;
+	private JedisIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		jedis = JedisMaker.make();
+		index = new JedisIndex(jedis, JedisIndex.Layout.POSTINGS);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (String url : Arrays.asList(URL1, URL2, URL3)) {
+			index.indexPage(new TermCounter(url));
+			String docId = jedis.hget("DocIds", url);
+			if (docId != null) {
+				jedis.hdel("DocURLs", docId);
+				jedis.hdel("DocIdLengths", docId);
+				jedis.hdel("DocIds", url);
+			}
+		}
+		jedis.close();
+	}
+
+	@Test
+	public void testDocIds() {
+		int docId = index.getDocId(URL1);
+		assertThat(index.getDocId(URL1), is(docId));
+		assertThat(index.getDocId(URL2), is(not(docId)));
+		assertThat(index.getURLs(Arrays.asList(docId)).get(docId), is(URL1));
+	}
+
+	@Test
+	public void testLengths() {
+		TermCounter tc = new TermCounter(URL1);
+		tc.processText("jedispostingstest virtual machine");
+		index.indexPage(tc);
+		tc = new TermCounter(URL2);
+		tc.processText("jedispostingstest");
+		index.indexPage(tc);
+
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		Map<String, Integer> counts = index.getCountsAndLengths("jedispostingstest", lengths);
+		assertThat(counts.size(), is(2));
+		assertThat(lengths.get(URL1), is(3));
+		assertThat(lengths.get(URL2), is(1));
+
+		// pages indexed before lengths were kept by docId
+		jedis.hdel("DocIdLengths", String.valueOf(index.getDocId(URL1)));
+		lengths.clear();
+		index.getCountsAndLengths("jedispostingstest", lengths);
+		assertThat(lengths.get(URL1), is(3));
+
+		// the same scores as looking each length up
+		Scorer scorer = new BM25Scorer();
+		WikiSearch search = WikiSearch.search("jedispostingstest", index, scorer);
+		double expected = scorer.score(1, 3, 2, index.numDocs(), index.avgDocLength());
+		assertThat(search.getRelevance(URL1), is(expected));
+	}
+
+	private void indexQueryPages() {
+		TermCounter tc = new TermCounter(URL1);
+		tc.put("jptalpha", 3);
+		tc.put("jptbeta", 1);
+		index.indexPage(tc);
+		tc = new TermCounter(URL2);
+		tc.put("jptalpha", 1);
+		tc.put("jptgamma", 2);
+		index.indexPage(tc);
+		tc = new TermCounter(URL3);
+		tc.put("jptbeta", 2);
+		tc.put("jptgamma", 1);
+		index.indexPage(tc);
+	}
+
+	@Test
+	public void testSearchAnd() {
+		indexQueryPages();
+		WikiSearch search = WikiSearch.searchAnd(Arrays.asList("jptalpha", "jptbeta"), index, 0);
+		assertThat(search.size(), is(1));
+		// relevance is the sum of the counts
+		assertThat(search.getRelevance(URL1), is(4.0));
+
+		search = WikiSearch.searchAnd(Arrays.asList("jptalpha", "jptmissing"), index, 0);
+		assertThat(search.size(), is(0));
+	}
+
+	@Test
+	public void testSearchOr() {
+		indexQueryPages();
+		WikiSearch search = WikiSearch.searchOr(Arrays.asList("jptalpha", "jptbeta"), index, 0);
+		assertThat(search.size(), is(3));
+		assertThat(search.getRelevance(URL1), is(4.0));
+		assertThat(search.getRelevance(URL2), is(1.0));
+		assertThat(search.getRelevance(URL3), is(2.0));
+
+		// only the best k come back
+		search = WikiSearch.searchOr(Arrays.asList("jptalpha", "jptbeta"), index, 2);
+		assertThat(search.size(), is(2));
+		assertThat(search.urls().contains(URL2), is(false));
+
+		search = WikiSearch.searchOr(Arrays.asList("jptalpha", "jptmissing"), index, 0);
+		assertThat(search.size(), is(2));
+		assertThat(search.getRelevance(URL1), is(3.0));
+
+		search = WikiSearch.searchOr(Arrays.asList("jptmissing"), index, 0);
+		assertThat(search.size(), is(0));
+	}
+
+	@Test
+	public void testSearchAndNot() {
+		indexQueryPages();
+		List<String> alpha = Arrays.asList("jptalpha");
+		WikiSearch search = WikiSearch.searchAndNot(alpha, Arrays.asList("jptgamma"), index, 0);
+		assertThat(search.size(), is(1));
+		assertThat(search.getRelevance(URL1), is(3.0));
+
+		// every page with the term is excluded
+		search = WikiSearch.searchAndNot(alpha, Arrays.asList("jptbeta", "jptgamma"), index, 0);
+		assertThat(search.size(), is(0));
+
+		// a term that is nowhere excludes nothing
+		search = WikiSearch.searchAndNot(alpha, Arrays.asList("jptmissing"), index, 0);
+		assertThat(search.size(), is(2));
+	}
+
+	@Test
+	public void testMissingURL() {
+		for (String url : Arrays.asList(URL1, URL2)) {
+			TermCounter tc = new TermCounter(url);
+			tc.put("jedispostingstest", 2);
+			index.indexPage(tc);
+		}
+		// an id left without its URL, as a crash in the middle of assigning it could
+		jedis.hdel("DocURLs", String.valueOf(index.getDocId(URL2)));
+
+		Map<String, Integer> counts = index.getCounts("jedispostingstest");
+		assertThat(counts.size(), is(1));
+		assertThat(counts.get(URL1), is(2));
+	}
+}
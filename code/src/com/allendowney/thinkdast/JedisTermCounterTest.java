@@ -46,11 +46,11 @@ public class JedisTermCounterTest {
 	@Test
 	public void testPushToRedis() {
 		counter.pushToRedis(jedis);
-		assertThat(counter.size(), is(4798));
+		assertThat(counter.size(), is(4462));
 
 		Map<String, String> map = counter.pullFromRedis(jedis);
 		
-		assertThat(map.size(), is(1184));
+		assertThat(map.size(), is(1183));
 		assertThat(map.get("the"), is("339"));
 	}
 }
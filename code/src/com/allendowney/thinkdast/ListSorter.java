@@ -2,6 +2,7 @@ package com.allendowney.thinkdast;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -225,8 +226,11 @@ public class ListSorter<T> {
 	 * @return 
 	 * @return
 	 */
-	public List<T> topK(int k, List<T> list, Comparator<T> comparator) {
-		PriorityQueue<T> heap = new PriorityQueue<T>(k, comparator);
+	public List<T> topK(int k, Collection<T> list, Comparator<T> comparator) {
+		if (k <= 0) {
+			return new ArrayList<T>();
+		}
+		PriorityQueue<T> heap = new PriorityQueue<T>(Math.min(k, Math.max(list.size(), 1)), comparator);
 
 		for (T element : list) {
 			if (heap.size() < k) {	// i. heap is not full
@@ -242,7 +246,7 @@ public class ListSorter<T> {
 			// smaller than the smallest: cannot be one of the largest k, just discard it
 		}
 
-		List<T> result = new ArrayList<T>(k);
+		List<T> result = new ArrayList<T>(heap.size());
 		while (!heap.isEmpty()) {
 			result.add(heap.poll());
 		}
@@ -102,6 +102,14 @@ public class ListSorterTest {
 		assertThat(res.get(1), is(6));
 		assertThat(res.get(2), is(7));
 		assertThat(res.get(3), is(8));
+
+		res = sorter.topK(10, list, comparator);
+		assertThat(res.size(), is(8));
+		assertThat(res.get(0), is(1));
+		assertThat(res.get(7), is(8));
+
+		res = sorter.topK(0, list, comparator);
+		assertThat(res.size(), is(0));
 	}
 
 	@Test
@@ -0,0 +1,448 @@
+package com.allendowney.thinkdast;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only index stored in a segment file and memory-mapped.
+ *
+ * Opening a segment maps the file and reads the header; nothing else is
+ * loaded into the heap. Lookups binary search the sorted tables in the
+ * mapped file and cursors decode the postings where they lie, so the OS
+ * page cache, not the Java heap, holds the index.
+ *
+ * Layout (big-endian), as written by SegmentWriter:
+ *
+ *     header      magic, version, maxDoc, numDocs, totalLength, numTerms,
+ *                 and the offset of each section below
+ *     doc table   per docId: length, URL position, deleted flag
+ *     URL index   live docIds sorted by URL
+ *     URL data    per docId: byte count and UTF-8 bytes
+ *     term table  per term, sorted: string position, postings count,
+ *                 maxFreq, minDocLength, postings position, skip count,
+ *                 docId bytes, count bytes, live df
+ *     term data   per term: byte count and UTF-8 bytes
+ *     postings    per term: skip pointers, docId gaps, counts (see PostingsList)
+ *
+ * A segment is limited to 2 GB, the most one MappedByteBuffer can map.
+ *
+ */
+public class MappedSegment {
+
+	static final int MAGIC = 0x54445347;
+	static final int VERSION = 2;
+
+	// five ints, totalLength, and six section offsets
+	static final int HEADER_SIZE = 5 * 4 + 7 * 8;
+	static final int DOC_ENTRY_SIZE = 12;
+	static final int TERM_ENTRY_SIZE = 40;
+
+	private final MappedByteBuffer buffer;
+
+	private final int maxDoc;
+	private final int numDocs;
+	private final long totalLength;
+	private final int numTerms;
+
+	private final int docTableOffset;
+	private final int urlIndexOffset;
+	private final int urlDataOffset;
+	private final int termTableOffset;
+	private final int termDataOffset;
+	private final int postingsOffset;
+
+	/**
+	 * Opens a segment file.
+	 *
+	 * @param file
+	 * @throws IOException if the file is not a segment.
+	 */
+	public MappedSegment(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Segment too large to map: " + file);
+			}
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a segment file: " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported segment version " + buffer.getInt(4) + ": " + file);
+		}
+		maxDoc = buffer.getInt(8);
+		numDocs = buffer.getInt(12);
+		totalLength = buffer.getLong(16);
+		numTerms = buffer.getInt(24);
+		docTableOffset = (int) buffer.getLong(28);
+		urlIndexOffset = (int) buffer.getLong(36);
+		urlDataOffset = (int) buffer.getLong(44);
+		termTableOffset = (int) buffer.getLong(52);
+		termDataOffset = (int) buffer.getLong(60);
+		postingsOffset = (int) buffer.getLong(68);
+	}
+
+	/**
+	 * Looks up a search term and returns a cursor on its postings, or null.
+	 *
+	 * The postings may include deleted docIds; see isDeleted.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public PostingsCursor postings(String term) {
+		int entry = findTerm(term);
+		return entry < 0 ? null : new Cursor(entry);
+	}
+
+	/**
+	 * Looks up a search term and returns a map from URL to count.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public Map<String, Integer> getCounts(String term) {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		PostingsCursor cursor = postings(term);
+		if (cursor != null) {
+			for (int doc = cursor.docId(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+				if (!isDeleted(doc)) {
+					map.put(getURL(doc), cursor.freq());
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the number of live pages that contain `term`.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getDocFreq(String term) {
+		int entry = findTerm(term);
+		return entry < 0 ? 0 : buffer.getInt(entry + 36);
+	}
+
+	/**
+	 * Returns the largest count of `term` on any page, or 0.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getMaxFreq(String term) {
+		int entry = findTerm(term);
+		return entry < 0 ? 0 : buffer.getInt(entry + 8);
+	}
+
+	/**
+	 * Returns the length of the shortest page that contains `term`.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getMinDocLength(String term) {
+		int entry = findTerm(term);
+		return entry < 0 ? Integer.MAX_VALUE : buffer.getInt(entry + 12);
+	}
+
+	/**
+	 * Checks whether a page is in the segment.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean isIndexed(String url) {
+		return getDocId(url) >= 0;
+	}
+
+	/**
+	 * Checks whether a docId belongs to a page that was indexed again.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public boolean isDeleted(int docId) {
+		return buffer.getInt(docTableOffset + docId * DOC_ENTRY_SIZE + 8) != 0;
+	}
+
+	/**
+	 * Returns the URL of a docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public String getURL(int docId) {
+		int pos = urlDataOffset + buffer.getInt(docTableOffset + docId * DOC_ENTRY_SIZE + 4);
+		return readString(pos);
+	}
+
+	/**
+	 * Returns the number of terms on a page, or 0 if it is not in the segment.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getDocLength(String url) {
+		int docId = getDocId(url);
+		return docId < 0 ? 0 : getDocLength(docId);
+	}
+
+	/**
+	 * Returns the number of terms on the page with the given docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public int getDocLength(int docId) {
+		return buffer.getInt(docTableOffset + docId * DOC_ENTRY_SIZE);
+	}
+
+	/**
+	 * Returns one more than the largest docId, including deleted ones.
+	 *
+	 * @return
+	 */
+	public int maxDoc() {
+		return maxDoc;
+	}
+
+	/**
+	 * Returns the number of pages in the segment.
+	 *
+	 * @return
+	 */
+	public int numDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * Returns the number of distinct terms in the segment.
+	 *
+	 * @return
+	 */
+	public int numTerms() {
+		return numTerms;
+	}
+
+	/**
+	 * Returns the number of terms on all live pages.
+	 *
+	 * @return
+	 */
+	public long totalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Returns the average number of terms per page.
+	 *
+	 * @return
+	 */
+	public double avgDocLength() {
+		return numDocs == 0 ? 0 : (double) totalLength / numDocs;
+	}
+
+	/**
+	 * Returns the i-th term, in sorted order.
+	 *
+	 * @param i  From 0 to numTerms() - 1.
+	 * @return
+	 */
+	public String getTerm(int i) {
+		return readString(termDataOffset + buffer.getInt(termTableOffset + i * TERM_ENTRY_SIZE));
+	}
+
+	/**
+	 * Finds the live docId of a URL.
+	 *
+	 * @param url
+	 * @return The docId, or -1.
+	 */
+	public int getDocId(String url) {
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = numDocs - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int docId = buffer.getInt(urlIndexOffset + mid * 4);
+			int pos = urlDataOffset + buffer.getInt(docTableOffset + docId * DOC_ENTRY_SIZE + 4);
+			int cmp = compare(pos, key);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return docId;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the term table entry of a term.
+	 *
+	 * @return The position of the entry in the buffer, or -1.
+	 */
+	private int findTerm(String term) {
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = numTerms - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int entry = termTableOffset + mid * TERM_ENTRY_SIZE;
+			int cmp = compare(termDataOffset + buffer.getInt(entry), key);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the string stored at `pos` with `key`, byte by byte,
+	 * without copying it out of the buffer.
+	 */
+	private int compare(int pos, byte[] key) {
+		int length = buffer.getInt(pos);
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (buffer.get(pos + 4 + i) & 0xFF) - (key[i] & 0xFF);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	private String readString(int pos) {
+		byte[] bytes = new byte[buffer.getInt(pos)];
+		ByteBuffer view = buffer.duplicate();
+		view.position(pos + 4);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes one term's postings in place, using its skip pointers.
+	 *
+	 * Only absolute reads are used, so cursors on the same segment can
+	 * be used by different threads.
+	 */
+	private class Cursor implements PostingsCursor {
+		private final int size;
+		private final int skipCount;
+		private final int skipBase;
+		private final int docBase;
+		private final int freqBase;
+
+		private int i = 0;
+		private int docPos;
+		private int freqPos;
+
+		private int docId = -1;
+		private int freq = 0;
+
+		// position after the last varint read
+		private int end;
+
+		Cursor(int entry) {
+			size = buffer.getInt(entry + 4);
+			skipCount = buffer.getInt(entry + 24);
+			skipBase = postingsOffset + (int) buffer.getLong(entry + 16);
+			docBase = skipBase + 12 * skipCount;
+			freqBase = docBase + buffer.getInt(entry + 28);
+			docPos = docBase;
+			freqPos = freqBase;
+			next();
+		}
+
+		@Override
+		public int docId() {
+			return docId;
+		}
+
+		@Override
+		public int freq() {
+			return freq;
+		}
+
+		@Override
+		public int next() {
+			if (i == size) {
+				docId = NO_MORE_DOCS;
+				return docId;
+			}
+			i++;
+			docId += readVInt(docPos);
+			docPos = end;
+			freq = readVInt(freqPos);
+			freqPos = end;
+			return docId;
+		}
+
+		@Override
+		public int advance(int target) {
+			if (docId >= target) {
+				return docId;
+			}
+			int from = i / PostingsList.SKIP_INTERVAL;
+			if (from < skipCount && skipDocId(from) < target) {
+				// the last block that starts before target
+				int lo = from;
+				int hi = skipCount - 1;
+				while (lo < hi) {
+					int mid = (lo + hi + 1) >>> 1;
+					if (skipDocId(mid) < target) {
+						lo = mid;
+					} else {
+						hi = mid - 1;
+					}
+				}
+				int skip = skipBase + 12 * lo;
+				i = (lo + 1) * PostingsList.SKIP_INTERVAL;
+				docId = buffer.getInt(skip);
+				docPos = docBase + buffer.getInt(skip + 4);
+				freqPos = freqBase + buffer.getInt(skip + 8);
+			}
+			while (docId < target) {
+				next();
+			}
+			return docId;
+		}
+
+		private int skipDocId(int j) {
+			return buffer.getInt(skipBase + 12 * j);
+		}
+
+		private int readVInt(int pos) {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buffer.get(pos++);
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					end = pos;
+					return value;
+				}
+			}
+		}
+	}
+}
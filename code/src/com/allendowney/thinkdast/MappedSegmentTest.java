@@ -0,0 +1,97 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes an InvertedIndex to a segment and checks that it reads back the same.
+ *
+ */
+public class MappedSegmentTest {
+
+	private InvertedIndex index;
+	private MappedSegment segment;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		Random random = new Random(7);
+		index = new InvertedIndex();
+		for (int i = 0; i < 3000; i++) {
+			TermCounter tc = new TermCounter("https://en.wikipedia.org/wiki/Page_" + i);
+			tc.put("common", 1 + random.nextInt(300));
+			if (random.nextInt(50) == 0) {
+				tc.put("rare", 1 + random.nextInt(5));
+			}
+			tc.put("café", 1);
+			index.indexPage(tc);
+		}
+		// replace a page, so the segment has a deleted docId
+		TermCounter tc = new TermCounter("https://en.wikipedia.org/wiki/Page_0");
+		tc.put("rare", 9);
+		index.indexPage(tc);
+
+		file = File.createTempFile("index", ".seg");
+		SegmentWriter.write(index, file);
+		segment = new MappedSegment(file);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testStats() {
+		assertThat(segment.numDocs(), is(index.numDocs()));
+		assertThat(segment.maxDoc(), is(index.maxDoc()));
+		assertThat(segment.avgDocLength(), is(index.avgDocLength()));
+		assertThat(segment.numTerms(), is(3));
+		for (String term : new String[] {"common", "rare", "café", "missing"}) {
+			assertThat(segment.getDocFreq(term), is(index.getDocFreq(term)));
+			assertThat(segment.getCounts(term), is(index.getCounts(term)));
+		}
+	}
+
+	@Test
+	public void testPages() {
+		String url = "https://en.wikipedia.org/wiki/Page_0";
+		assertThat(segment.isIndexed(url), is(true));
+		assertThat(segment.getDocLength(url), is(9));
+		assertThat(segment.isDeleted(0), is(true));
+		assertThat(segment.getURL(0), is(url));
+		assertThat(segment.isIndexed("https://en.wikipedia.org/wiki/Page_3000"), is(false));
+		for (int docId = 1; docId < index.maxDoc(); docId++) {
+			assertThat(segment.getDocLength(segment.getURL(docId)), is(index.getDocLength(docId)));
+		}
+	}
+
+	@Test
+	public void testAdvance() {
+		PostingsCursor expected = index.get("common").cursor();
+		PostingsCursor actual = segment.postings("common");
+		for (int target = 0; target < 3000; target += 1 + target / 3) {
+			assertThat(actual.advance(target), is(expected.advance(target)));
+			assertThat(actual.freq(), is(expected.freq()));
+		}
+		assertThat(segment.postings("missing"), is((PostingsCursor) null));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotASegment() throws IOException {
+		File other = File.createTempFile("other", ".seg");
+		try {
+			new MappedSegment(other);
+		} finally {
+			other.delete();
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Reduces English words to their stems with the Porter algorithm, so
+ * "connect", "connected", "connecting" and "connections" are all
+ * indexed as "connect".
+ *
+ * Follows M.F. Porter, "An algorithm for suffix stripping" (1980), as
+ * in his reference implementation. Only words of lower case ASCII
+ * letters are stemmed; other words are returned unchanged.
+ *
+ */
+public class PorterStemmer {
+
+	// the word being stemmed is b[0..k]; j marks the end of a stem
+	private final char[] b;
+	private int k;
+	private int j;
+
+	private PorterStemmer(String word) {
+		// one extra char, for suffixes that grow, like "at" -> "ate"
+		b = new char[word.length() + 1];
+		word.getChars(0, word.length(), b, 0);
+		k = word.length() - 1;
+	}
+
+	/**
+	 * Returns the stem of `word`.
+	 *
+	 * @param word  A lower case word.
+	 * @return
+	 */
+	public static String stem(String word) {
+		if (word.length() <= 2) {
+			return word;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c < 'a' || c > 'z') {
+				return word;
+			}
+		}
+		PorterStemmer s = new PorterStemmer(word);
+		s.step1ab();
+		if (s.k > 0) {
+			s.step1c();
+			s.step2();
+			s.step3();
+			s.step4();
+			s.step5();
+		}
+		return new String(s.b, 0, s.k + 1);
+	}
+
+	/**
+	 * Checks whether b[i] is a consonant; y is one unless it follows one.
+	 */
+	private boolean cons(int i) {
+		switch (b[i]) {
+		case 'a': case 'e': case 'i': case 'o': case 'u':
+			return false;
+		case 'y':
+			return i == 0 || !cons(i - 1);
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Counts the vowel-consonant sequences in b[0..j], the m of the paper:
+	 *
+	 *     [C](VC){m}[V]
+	 */
+	private int m() {
+		int n = 0;
+		int i = 0;
+		while (true) {
+			if (i > j) {
+				return n;
+			}
+			if (!cons(i)) {
+				break;
+			}
+			i++;
+		}
+		i++;
+		while (true) {
+			while (true) {
+				if (i > j) {
+					return n;
+				}
+				if (cons(i)) {
+					break;
+				}
+				i++;
+			}
+			i++;
+			n++;
+			while (true) {
+				if (i > j) {
+					return n;
+				}
+				if (!cons(i)) {
+					break;
+				}
+				i++;
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Checks whether b[0..j] contains a vowel.
+	 */
+	private boolean vowelInStem() {
+		for (int i = 0; i <= j; i++) {
+			if (!cons(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether b[i-1..i] is a double consonant.
+	 */
+	private boolean doubleC(int i) {
+		return i >= 1 && b[i] == b[i - 1] && cons(i);
+	}
+
+	/**
+	 * Checks whether b[i-2..i] is consonant-vowel-consonant and the last
+	 * consonant is not w, x or y, as in "hop" but not "snow".
+	 */
+	private boolean cvc(int i) {
+		if (i < 2 || !cons(i) || cons(i - 1) || !cons(i - 2)) {
+			return false;
+		}
+		char c = b[i];
+		return c != 'w' && c != 'x' && c != 'y';
+	}
+
+	/**
+	 * Checks whether b[0..k] ends with `s`, and if so sets j to the end of the stem.
+	 */
+	private boolean ends(String s) {
+		int length = s.length();
+		int offset = k - length + 1;
+		if (offset < 0) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (b[offset + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		j = k - length;
+		return true;
+	}
+
+	/**
+	 * Replaces the suffix after b[0..j] with `s`.
+	 */
+	private void setTo(String s) {
+		s.getChars(0, s.length(), b, j + 1);
+		k = j + s.length();
+	}
+
+	/**
+	 * Replaces the suffix with `s` if the stem has m > 0.
+	 */
+	private void r(String s) {
+		if (m() > 0) {
+			setTo(s);
+		}
+	}
+
+	/**
+	 * Removes plurals and -ed or -ing.
+	 */
+	private void step1ab() {
+		if (b[k] == 's') {
+			if (ends("sses")) {
+				k -= 2;
+			} else if (ends("ies")) {
+				setTo("i");
+			} else if (b[k - 1] != 's') {
+				k--;
+			}
+		}
+		if (ends("eed")) {
+			if (m() > 0) {
+				k--;
+			}
+		} else if ((ends("ed") || ends("ing")) && vowelInStem()) {
+			k = j;
+			if (ends("at")) {
+				setTo("ate");
+			} else if (ends("bl")) {
+				setTo("ble");
+			} else if (ends("iz")) {
+				setTo("ize");
+			} else if (doubleC(k)) {
+				k--;
+				char c = b[k];
+				if (c == 'l' || c == 's' || c == 'z') {
+					k++;
+				}
+			} else if (m() == 1 && cvc(k)) {
+				setTo("e");
+			}
+		}
+	}
+
+	/**
+	 * Turns a final y into i when there is another vowel in the stem.
+	 */
+	private void step1c() {
+		if (ends("y") && vowelInStem()) {
+			b[k] = 'i';
+		}
+	}
+
+	/**
+	 * Maps double suffixes to single ones, like -ization to -ize.
+	 */
+	private void step2() {
+		switch (b[k - 1]) {
+		case 'a':
+			if (ends("ational")) { r("ate"); break; }
+			if (ends("tional")) { r("tion"); break; }
+			break;
+		case 'c':
+			if (ends("enci")) { r("ence"); break; }
+			if (ends("anci")) { r("ance"); break; }
+			break;
+		case 'e':
+			if (ends("izer")) { r("ize"); break; }
+			break;
+		case 'l':
+			if (ends("bli")) { r("ble"); break; }
+			if (ends("alli")) { r("al"); break; }
+			if (ends("entli")) { r("ent"); break; }
+			if (ends("eli")) { r("e"); break; }
+			if (ends("ousli")) { r("ous"); break; }
+			break;
+		case 'o':
+			if (ends("ization")) { r("ize"); break; }
+			if (ends("ation")) { r("ate"); break; }
+			if (ends("ator")) { r("ate"); break; }
+			break;
+		case 's':
+			if (ends("alism")) { r("al"); break; }
+			if (ends("iveness")) { r("ive"); break; }
+			if (ends("fulness")) { r("ful"); break; }
+			if (ends("ousness")) { r("ous"); break; }
+			break;
+		case 't':
+			if (ends("aliti")) { r("al"); break; }
+			if (ends("iviti")) { r("ive"); break; }
+			if (ends("biliti")) { r("ble"); break; }
+			break;
+		case 'g':
+			if (ends("logi")) { r("log"); break; }
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Handles -ic-, -full, -ness and the like.
+	 */
+	private void step3() {
+		switch (b[k]) {
+		case 'e':
+			if (ends("icate")) { r("ic"); break; }
+			if (ends("ative")) { r(""); break; }
+			if (ends("alize")) { r("al"); break; }
+			break;
+		case 'i':
+			if (ends("iciti")) { r("ic"); break; }
+			break;
+		case 'l':
+			if (ends("ical")) { r("ic"); break; }
+			if (ends("ful")) { r(""); break; }
+			break;
+		case 's':
+			if (ends("ness")) { r(""); break; }
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Removes -ant, -ence and the like when the stem has m > 1.
+	 */
+	private void step4() {
+		boolean found;
+		switch (b[k - 1]) {
+		case 'a':
+			found = ends("al");
+			break;
+		case 'c':
+			found = ends("ance") || ends("ence");
+			break;
+		case 'e':
+			found = ends("er");
+			break;
+		case 'i':
+			found = ends("ic");
+			break;
+		case 'l':
+			found = ends("able") || ends("ible");
+			break;
+		case 'n':
+			found = ends("ant") || ends("ement") || ends("ment") || ends("ent");
+			break;
+		case 'o':
+			found = (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) || ends("ou");
+			break;
+		case 's':
+			found = ends("ism");
+			break;
+		case 't':
+			found = ends("ate") || ends("iti");
+			break;
+		case 'u':
+			found = ends("ous");
+			break;
+		case 'v':
+			found = ends("ive");
+			break;
+		case 'z':
+			found = ends("ize");
+			break;
+		default:
+			found = false;
+			break;
+		}
+		if (found && m() > 1) {
+			k = j;
+		}
+	}
+
+	/**
+	 * Removes a final -e, and turns -ll into -l, when the stem has m > 1.
+	 */
+	private void step5() {
+		j = k;
+		if (b[k] == 'e') {
+			int a = m();
+			if (a > 1 || (a == 1 && !cvc(k - 1))) {
+				k--;
+			}
+		}
+		if (b[k] == 'l' && doubleC(k) && m() > 1) {
+			k--;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String[] words = {"caresses", "ponies", "running", "generalization", "relational", "languages"};
+		for (String word : words) {
+			System.out.println(word + " -> " + stem(word));
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for PorterStemmer, with examples from Porter's paper.
+ *
+ */
+public class PorterStemmerTest {
+
+	private static void check(String... pairs) {
+		for (int i = 0; i < pairs.length; i += 2) {
+			assertThat(pairs[i], PorterStemmer.stem(pairs[i]), is(pairs[i + 1]));
+		}
+	}
+
+	@Test
+	public void testStep1() {
+		check("caresses", "caress", "ponies", "poni", "ties", "ti", "caress", "caress", "cats", "cat",
+				"feed", "feed", "agreed", "agre", "plastered", "plaster", "bled", "bled",
+				"motoring", "motor", "sing", "sing", "conflated", "conflat", "troubled", "troubl",
+				"sized", "size", "hopping", "hop", "tanned", "tan", "falling", "fall",
+				"hissing", "hiss", "fizzed", "fizz", "failing", "fail", "filing", "file",
+				"happy", "happi", "sky", "sky");
+	}
+
+	@Test
+	public void testSteps2To5() {
+		check("relational", "relat", "conditional", "condit", "rational", "ration",
+				"valenci", "valenc", "digitizer", "digit", "generalization", "gener",
+				"operator", "oper", "hopefulness", "hope", "sensitiviti", "sensit",
+				"triplicate", "triplic", "electrical", "electr", "goodness", "good",
+				"revival", "reviv", "adjustment", "adjust", "adoption", "adopt",
+				"probate", "probat", "rate", "rate", "cease", "ceas",
+				"controll", "control", "roll", "roll");
+	}
+
+	@Test
+	public void testOtherWords() {
+		check("connections", "connect", "connecting", "connect", "is", "is",
+				"c++", "c++", "java8", "java8", "été", "été");
+	}
+}
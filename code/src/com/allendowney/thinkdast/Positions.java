@@ -0,0 +1,180 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+
+/**
+ * The positions of one term on one page, in increasing order.
+ *
+ * Positions are stored as varint gaps, so most take one byte, and they
+ * are only decoded when a cursor walks them. Queries that need counts
+ * only never touch them.
+ *
+ */
+public class Positions {
+
+	public static final int NO_MORE_POSITIONS = Integer.MAX_VALUE;
+
+	private byte[] bytes = new byte[4];
+	private int length = 0;
+	private int size = 0;
+	private int last = 0;
+
+	/**
+	 * Appends a position, which must be larger than the ones before it.
+	 *
+	 * @param position
+	 */
+	void add(int position) {
+		if (size > 0 && position <= last) {
+			throw new IllegalArgumentException("Positions must increase: " + position + " after " + last);
+		}
+		if (length + 5 > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(length + 5, bytes.length * 2));
+		}
+		int gap = position - last;
+		while ((gap & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+			gap >>>= 7;
+		}
+		bytes[length++] = (byte) gap;
+		last = position;
+		size++;
+	}
+
+	/**
+	 * Appends the positions of `other`, each plus `offset`, which must put
+	 * them after the ones before.
+	 *
+	 * Only the first gap changes, so the rest are copied as they are.
+	 *
+	 * @param other
+	 * @param offset
+	 */
+	void addAll(Positions other, int offset) {
+		if (other.size == 0) {
+			return;
+		}
+		// decode the first position, which is its own gap
+		int first = 0;
+		int n = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = other.bytes[n++];
+			first |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		add(first + offset);
+
+		int rest = other.length - n;
+		if (length + rest > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(length + rest, bytes.length * 2));
+		}
+		System.arraycopy(other.bytes, n, bytes, length, rest);
+		length += rest;
+		size += other.size - 1;
+		last = other.last + offset;
+	}
+
+	/**
+	 * Returns the number of positions.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes used by the encoded positions.
+	 *
+	 * @return
+	 */
+	public int sizeInBytes() {
+		return length;
+	}
+
+	/**
+	 * Decodes all the positions.
+	 *
+	 * @return
+	 */
+	public int[] toArray() {
+		int[] array = new int[size];
+		Cursor cursor = cursor();
+		for (int i = 0; i < size; i++) {
+			array[i] = cursor.position();
+			cursor.next();
+		}
+		return array;
+	}
+
+	/**
+	 * Returns a cursor on the first position.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Iterates the positions in order, decoding them as it goes.
+	 *
+	 * Once they run out, position returns NO_MORE_POSITIONS.
+	 */
+	public class Cursor {
+		private int i = 0;
+		private int pos = 0;
+		private int position = 0;
+
+		Cursor() {
+			next();
+		}
+
+		/**
+		 * Returns the current position, or NO_MORE_POSITIONS.
+		 *
+		 * @return
+		 */
+		public int position() {
+			return position;
+		}
+
+		/**
+		 * Moves to the next position.
+		 *
+		 * @return The new position.
+		 */
+		public int next() {
+			if (i == size) {
+				position = NO_MORE_POSITIONS;
+				return position;
+			}
+			i++;
+			int gap = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = bytes[pos++];
+				gap |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			position += gap;
+			return position;
+		}
+
+		/**
+		 * Moves to the first position >= target.
+		 *
+		 * @param target
+		 * @return The new position.
+		 */
+		public int advance(int target) {
+			while (position < target) {
+				next();
+			}
+			return position;
+		}
+	}
+}
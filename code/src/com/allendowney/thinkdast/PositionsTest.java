@@ -0,0 +1,85 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for Positions and the phrase and proximity queries that use them.
+ *
+ */
+public class PositionsTest {
+
+	private Index index;
+
+	@Before
+	public void setUp() {
+		index = new Index(true);
+		index.indexPage(page("page1", "The Java virtual machine runs Java programs."));
+		index.indexPage(page("page2", "A virtual Java machine? No: the machine is virtual."));
+		index.indexPage(page("page3", "Java, virtual machine, and Java virtual machine again."));
+	}
+
+	private static TermCounter page(String url, String text) {
+		TermCounter tc = new TermCounter(url, true);
+		tc.processText(text);
+		return tc;
+	}
+
+	@Test
+	public void testEncoding() {
+		int[] expected = {0, 1, 127, 128, 300, 16384, 1000000};
+		Positions positions = new Positions();
+		for (int position : expected) {
+			positions.add(position);
+		}
+		assertThat(positions.size(), is(expected.length));
+		assertThat(positions.toArray(), is(expected));
+
+		Positions.Cursor cursor = positions.cursor();
+		assertThat(cursor.advance(129), is(300));
+		assertThat(cursor.advance(300), is(300));
+		assertThat(cursor.next(), is(16384));
+		assertThat(cursor.advance(1000001), is(Positions.NO_MORE_POSITIONS));
+	}
+
+	@Test
+	public void testPositions() {
+		TermCounter tc = page("url", " The cat; the hat.");
+		assertThat(tc.getPositions("the").toArray(), is(new int[] {0, 2}));
+		assertThat(tc.getPositions("hat").toArray(), is(new int[] {3}));
+		assertThat(tc.getPositions("dog"), is((Positions) null));
+		assertThat(new TermCounter("url").getPositions("the"), is((Positions) null));
+	}
+
+	@Test
+	public void testPhrase() {
+		Scorer scorer = new TfIdfScorer();
+		WikiSearch search = WikiSearch.searchPhrase(Arrays.asList("java", "virtual", "machine"), index, scorer);
+		assertThat(search.size(), is(2));
+		assertThat(search.getRelevance("page3") > search.getRelevance("page1"), is(true));
+
+		search = WikiSearch.searchPhrase(Arrays.asList("virtual", "machine"), index, scorer);
+		assertThat(search.size(), is(2));
+		assertThat(search.urls().contains("page2"), is(false));
+	}
+
+	@Test
+	public void testNear() {
+		Scorer scorer = new TfIdfScorer();
+		WikiSearch search = WikiSearch.searchNear("java", "machine", 1, index, scorer);
+		assertThat(search.size(), is(1));
+		assertThat(search.urls().contains("page2"), is(true));
+
+		search = WikiSearch.searchNear("java", "machine", 2, index, scorer);
+		assertThat(search.size(), is(3));
+
+		search = WikiSearch.searchNear("virtual", "virtual", 4, index, scorer);
+		assertThat(search.size(), is(1));
+		assertThat(search.urls().contains("page3"), is(true));
+	}
+}
@@ -0,0 +1,42 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Iterates the (docId, count) postings of one term in docId order.
+ *
+ * Once the postings run out, docId returns NO_MORE_DOCS, which is larger
+ * than any real docId, so exhausted cursors sort last.
+ *
+ */
+public interface PostingsCursor {
+
+	int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * Returns the current docId, or NO_MORE_DOCS.
+	 *
+	 * @return
+	 */
+	int docId();
+
+	/**
+	 * Returns the count for the current docId.
+	 *
+	 * @return
+	 */
+	int freq();
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return The new docId.
+	 */
+	int next();
+
+	/**
+	 * Moves to the first posting with docId >= target.
+	 *
+	 * @param target
+	 * @return The new docId.
+	 */
+	int advance(int target);
+}
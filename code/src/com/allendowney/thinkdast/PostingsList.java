@@ -0,0 +1,279 @@
+package com.allendowney.thinkdast;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The pages that contain one term, as (docId, count) pairs in docId order.
+ *
+ * The pairs are stored compressed in two parallel byte arrays: docIds as
+ * the gap from the previous docId, and counts as they are, both as varints
+ * (7 bits per byte, high bit set on all but the last byte). Gaps and counts
+ * are usually small, so most postings take two bytes instead of the
+ * pointer, TermCounter and boxed Integer that Index uses.
+ *
+ * Every SKIP_INTERVAL postings it records a skip pointer: the last docId
+ * before the block and where the block starts in each array. A cursor
+ * can then jump over whole blocks without decoding them, so advancing
+ * through a long list costs about one block per call plus a binary search.
+ *
+ * Along with the postings it keeps the largest count and the shortest page,
+ * so a Scorer can compute an upper bound for the term without reading them.
+ *
+ */
+public class PostingsList {
+
+	public static final int SKIP_INTERVAL = 64;
+
+	private byte[] docBytes = new byte[4];
+	private int docBytesLength = 0;
+
+	private byte[] freqBytes = new byte[4];
+	private int freqBytesLength = 0;
+
+	private int size = 0;
+	private int lastDocId = -1;
+
+	// skip pointer j is for the block that starts at posting (j+1) * SKIP_INTERVAL
+	private int[] skipDocIds = new int[0];
+	private int[] skipDocPos = new int[0];
+	private int[] skipFreqPos = new int[0];
+	private int skipCount = 0;
+
+	private int maxFreq = 0;
+	private int minDocLength = Integer.MAX_VALUE;
+
+	/**
+	 * Appends a posting; docIds must be added in increasing order.
+	 *
+	 * @param docId
+	 * @param freq       Number of times the term appears on the page.
+	 * @param docLength  Number of terms on the page.
+	 */
+	public void add(int docId, int freq, int docLength) {
+		if (docId <= lastDocId) {
+			throw new IllegalArgumentException("docId out of order: " + docId);
+		}
+		if (size > 0 && size % SKIP_INTERVAL == 0) {
+			addSkip();
+		}
+		docBytes = ensureCapacity(docBytes, docBytesLength + 5);
+		docBytesLength = writeVInt(docBytes, docBytesLength, docId - lastDocId);
+		freqBytes = ensureCapacity(freqBytes, freqBytesLength + 5);
+		freqBytesLength = writeVInt(freqBytes, freqBytesLength, freq);
+
+		lastDocId = docId;
+		size++;
+		maxFreq = Math.max(maxFreq, freq);
+		minDocLength = Math.min(minDocLength, docLength);
+	}
+
+	private void addSkip() {
+		if (skipCount == skipDocIds.length) {
+			int capacity = Math.max(4, skipCount * 2);
+			skipDocIds = Arrays.copyOf(skipDocIds, capacity);
+			skipDocPos = Arrays.copyOf(skipDocPos, capacity);
+			skipFreqPos = Arrays.copyOf(skipFreqPos, capacity);
+		}
+		skipDocIds[skipCount] = lastDocId;
+		skipDocPos[skipCount] = docBytesLength;
+		skipFreqPos[skipCount] = freqBytesLength;
+		skipCount++;
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the largest count in the list.
+	 *
+	 * @return
+	 */
+	public int maxFreq() {
+		return maxFreq;
+	}
+
+	/**
+	 * Returns the length of the shortest page in the list.
+	 *
+	 * @return
+	 */
+	public int minDocLength() {
+		return minDocLength;
+	}
+
+	/**
+	 * Returns the number of bytes used by the compressed postings.
+	 *
+	 * @return
+	 */
+	public int sizeInBytes() {
+		return docBytes.length + freqBytes.length + 12 * skipDocIds.length;
+	}
+
+	/**
+	 * Releases the unused space at the end of the arrays.
+	 */
+	public void trimToSize() {
+		docBytes = Arrays.copyOf(docBytes, docBytesLength);
+		freqBytes = Arrays.copyOf(freqBytes, freqBytesLength);
+		skipDocIds = Arrays.copyOf(skipDocIds, skipCount);
+		skipDocPos = Arrays.copyOf(skipDocPos, skipCount);
+		skipFreqPos = Arrays.copyOf(skipFreqPos, skipCount);
+	}
+
+	/**
+	 * Writes the skip pointers, docId gaps and counts, in that order.
+	 *
+	 * This is the layout MappedSegment reads; see SegmentWriter.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		for (int j = 0; j < skipCount; j++) {
+			out.writeInt(skipDocIds[j]);
+			out.writeInt(skipDocPos[j]);
+			out.writeInt(skipFreqPos[j]);
+		}
+		out.write(docBytes, 0, docBytesLength);
+		out.write(freqBytes, 0, freqBytesLength);
+	}
+
+	int skipCount() {
+		return skipCount;
+	}
+
+	int docBytesLength() {
+		return docBytesLength;
+	}
+
+	int freqBytesLength() {
+		return freqBytesLength;
+	}
+
+	/**
+	 * Returns a cursor positioned on the first posting.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	private static byte[] ensureCapacity(byte[] bytes, int capacity) {
+		if (capacity <= bytes.length) {
+			return bytes;
+		}
+		return Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+	}
+
+	/**
+	 * Writes a non-negative int as a varint.
+	 *
+	 * @return The position after the last byte written.
+	 */
+	private static int writeVInt(byte[] bytes, int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Iterates the postings in docId order, decoding them as it goes.
+	 */
+	public class Cursor implements PostingsCursor {
+
+		// number of postings decoded so far, and where the next ones start
+		private int i = 0;
+		private int docPos = 0;
+		private int freqPos = 0;
+
+		private int docId = -1;
+		private int freq = 0;
+
+		Cursor() {
+			next();
+		}
+
+		@Override
+		public int docId() {
+			return docId;
+		}
+
+		@Override
+		public int freq() {
+			return freq;
+		}
+
+		@Override
+		public int next() {
+			if (i == size) {
+				docId = NO_MORE_DOCS;
+				return docId;
+			}
+			i++;
+			docId += readDocGap();
+			freq = readFreq();
+			return docId;
+		}
+
+		/**
+		 * Uses the skip pointers to jump to the block that may contain
+		 * `target`, then decodes forward from there.
+		 */
+		@Override
+		public int advance(int target) {
+			if (docId >= target) {
+				return docId;
+			}
+			// the first skip pointer ahead of the cursor
+			int from = i / SKIP_INTERVAL;
+			if (from < skipCount && skipDocIds[from] < target) {
+				// the last block that starts before target
+				int j = Arrays.binarySearch(skipDocIds, from, skipCount, target);
+				j = (j >= 0 ? j : -j - 1) - 1;
+				i = (j + 1) * SKIP_INTERVAL;
+				docId = skipDocIds[j];
+				docPos = skipDocPos[j];
+				freqPos = skipFreqPos[j];
+			}
+			while (docId < target) {
+				next();
+			}
+			return docId;
+		}
+
+		private int readDocGap() {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = docBytes[docPos++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		private int readFreq() {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = freqBytes[freqPos++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+	}
+}
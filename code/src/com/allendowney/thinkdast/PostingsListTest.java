@@ -0,0 +1,79 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that PostingsList decodes what it encodes.
+ *
+ */
+public class PostingsListTest {
+
+	private PostingsList postings;
+	private int[] docIds;
+	private int[] freqs;
+
+	/**
+	 * Makes a list with gaps and counts of all sizes, including ones
+	 * that need several varint bytes.
+	 */
+	@Before
+	public void setUp() {
+		Random random = new Random(3);
+		int n = 1000;
+		docIds = new int[n];
+		freqs = new int[n];
+		postings = new PostingsList();
+		int docId = 0;
+		for (int i = 0; i < n; i++) {
+			docId += 1 + random.nextInt(1 << random.nextInt(22));
+			docIds[i] = docId;
+			freqs[i] = 1 + random.nextInt(1 << random.nextInt(20));
+			postings.add(docIds[i], freqs[i], 100 + i);
+		}
+	}
+
+	@Test
+	public void testNext() {
+		PostingsList.Cursor cursor = postings.cursor();
+		for (int i = 0; i < docIds.length; i++) {
+			assertThat(cursor.docId(), is(docIds[i]));
+			assertThat(cursor.freq(), is(freqs[i]));
+			cursor.next();
+		}
+		assertThat(cursor.docId(), is(PostingsCursor.NO_MORE_DOCS));
+		assertThat(cursor.next(), is(PostingsCursor.NO_MORE_DOCS));
+		assertThat(postings.size(), is(docIds.length));
+		assertThat(postings.minDocLength(), is(100));
+	}
+
+	@Test
+	public void testAdvance() {
+		PostingsList.Cursor cursor = postings.cursor();
+		for (int i = 10; i < docIds.length; i += 37) {
+			// targets between postings land on the next one
+			assertThat(cursor.advance(docIds[i - 1] + 1), is(docIds[i]));
+			assertThat(cursor.freq(), is(freqs[i]));
+			assertThat(cursor.advance(docIds[i]), is(docIds[i]));
+		}
+		assertThat(cursor.advance(docIds[docIds.length - 1] + 1), is(PostingsCursor.NO_MORE_DOCS));
+	}
+
+	@Test
+	public void testTrimToSize() {
+		postings.trimToSize();
+		PostingsList.Cursor cursor = postings.cursor();
+		assertThat(cursor.advance(docIds[999]), is(docIds[999]));
+		assertThat(cursor.freq(), is(freqs[999]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfOrder() {
+		postings.add(docIds[0], 1, 1);
+	}
+}
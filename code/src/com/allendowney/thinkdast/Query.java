@@ -0,0 +1,135 @@
+package com.allendowney.thinkdast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed search query: terms and phrases combined with AND, OR and NOT.
+ *
+ * Made by QueryParser and run by QueryPlanner. toString gives the query
+ * back in the syntax QueryParser reads, with every group in parentheses.
+ *
+ */
+public abstract class Query {
+
+	/**
+	 * A single search term.
+	 */
+	public static class Term extends Query {
+		private final String term;
+
+		public Term(String term) {
+			this.term = term;
+		}
+
+		public String getTerm() {
+			return term;
+		}
+
+		@Override
+		public String toString() {
+			return term;
+		}
+	}
+
+	/**
+	 * Terms that have to occur next to each other, in order.
+	 */
+	public static class Phrase extends Query {
+		private final List<String> terms;
+
+		public Phrase(List<String> terms) {
+			this.terms = Collections.unmodifiableList(new ArrayList<String>(terms));
+		}
+
+		public List<String> getTerms() {
+			return terms;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("\"");
+			for (String term : terms) {
+				if (sb.length() > 1) {
+					sb.append(' ');
+				}
+				sb.append(term);
+			}
+			return sb.append('"').toString();
+		}
+	}
+
+	/**
+	 * Pages that match all of the clauses.
+	 *
+	 * Clauses that are Nots remove pages from the others.
+	 */
+	public static class And extends Query {
+		private final List<Query> clauses;
+
+		public And(List<Query> clauses) {
+			this.clauses = Collections.unmodifiableList(new ArrayList<Query>(clauses));
+		}
+
+		public List<Query> getClauses() {
+			return clauses;
+		}
+
+		@Override
+		public String toString() {
+			return join(clauses, " AND ");
+		}
+	}
+
+	/**
+	 * Pages that match any of the clauses.
+	 */
+	public static class Or extends Query {
+		private final List<Query> clauses;
+
+		public Or(List<Query> clauses) {
+			this.clauses = Collections.unmodifiableList(new ArrayList<Query>(clauses));
+		}
+
+		public List<Query> getClauses() {
+			return clauses;
+		}
+
+		@Override
+		public String toString() {
+			return join(clauses, " OR ");
+		}
+	}
+
+	/**
+	 * Pages that do not match the clause; only meaningful inside an And.
+	 */
+	public static class Not extends Query {
+		private final Query clause;
+
+		public Not(Query clause) {
+			this.clause = clause;
+		}
+
+		public Query getClause() {
+			return clause;
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + clause;
+		}
+	}
+
+	private static String join(List<Query> clauses, String operator) {
+		StringBuilder sb = new StringBuilder("(");
+		for (Query clause : clauses) {
+			if (sb.length() > 1) {
+				sb.append(operator);
+			}
+			sb.append(clause);
+		}
+		return sb.append(')').toString();
+	}
+}
@@ -0,0 +1,291 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jsoup.select.Elements;
+
+/**
+ * Caches search results in front of a SearchIndex.
+ *
+ * Results of single-term searches and of the boolean combinations are kept
+ * in a BoundedCache with a memory budget. Each entry remembers the terms it
+ * depends on; indexing a page through this class drops exactly the entries
+ * that use one of the page's terms, so cached results never show counts
+ * that the index no longer has.
+ *
+ * Scores also depend on corpus-wide statistics (number of pages, average
+ * length), which every new page changes slightly. Entries are not dropped
+ * for that; they catch up when they are evicted or invalidated.
+ *
+ */
+public class QueryCache {
+
+	// rough heap cost of a result: map entry, boxed score, and URL string
+	private static final int BYTES_PER_RESULT = 96;
+	private static final int BYTES_PER_ENTRY = 128;
+
+	private final SearchIndex index;
+	private final Scorer scorer;
+	private final BoundedCache<String, Entry> cache;
+
+	// term -> keys of the cached queries that use it; changed only with
+	// the cache locked, since its removal listener runs that way
+	private final Map<String, Set<String>> keysByTerm = new HashMap<String, Set<String>>();
+
+	// bumped by every invalidation, so a search that overlaps one is not cached
+	private final AtomicLong generation = new AtomicLong();
+
+	private static class Entry {
+		final WikiSearch result;
+		final List<String> terms;
+
+		Entry(WikiSearch result, List<String> terms) {
+			this.result = result;
+			this.terms = terms;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param scorer
+	 * @param maxBytes  Memory budget for the cached results.
+	 */
+	public QueryCache(SearchIndex index, Scorer scorer, long maxBytes) {
+		this.index = index;
+		this.scorer = scorer;
+		this.cache = new BoundedCache<String, Entry>(maxBytes, new BoundedCache.Weigher<String, Entry>() {
+			@Override
+			public long weigh(String key, Entry entry) {
+				long bytes = BYTES_PER_ENTRY + 2L * key.length();
+				for (String url : entry.result.urls()) {
+					bytes += BYTES_PER_RESULT + 2L * url.length();
+				}
+				return bytes;
+			}
+		});
+		cache.setRemovalListener(new BoundedCache.RemovalListener<String, Entry>() {
+			@Override
+			public void onRemoval(String key, Entry entry) {
+				for (String term : entry.terms) {
+					Set<String> keys = keysByTerm.get(term);
+					if (keys != null && keys.remove(key) && keys.isEmpty()) {
+						keysByTerm.remove(term);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Searches for one term.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public WikiSearch search(String term) {
+		String key = "term:" + term;
+		Entry entry = cache.get(key);
+		if (entry != null) {
+			return entry.result;
+		}
+		long start = generation.get();
+		WikiSearch result = WikiSearch.search(term, index, scorer);
+		put(key, result, Collections.singletonList(term), start);
+		return result;
+	}
+
+	/**
+	 * Finds the pages that contain all of `terms`.
+	 *
+	 * @param terms
+	 * @return
+	 */
+	public WikiSearch searchAnd(List<String> terms) {
+		return searchAndNot(terms, Collections.<String>emptyList());
+	}
+
+	/**
+	 * Finds the pages that contain any of `terms`.
+	 *
+	 * @param terms
+	 * @return
+	 */
+	public WikiSearch searchOr(List<String> terms) {
+		String key = "or:" + terms;
+		Entry entry = cache.get(key);
+		if (entry != null) {
+			return entry.result;
+		}
+		long start = generation.get();
+		List<WikiSearch> results = new ArrayList<WikiSearch>();
+		for (String term : terms) {
+			results.add(search(term));
+		}
+		WikiSearch result = QueryPlanner.union(results);
+		put(key, result, terms, start);
+		return result;
+	}
+
+	/**
+	 * Finds the pages that contain all of `terms` and none of `excluded`.
+	 *
+	 * @param terms
+	 * @param excluded
+	 * @return
+	 */
+	public WikiSearch searchAndNot(List<String> terms, List<String> excluded) {
+		String key = "and:" + terms + " not:" + excluded;
+		Entry entry = cache.get(key);
+		if (entry != null) {
+			return entry.result;
+		}
+		long start = generation.get();
+		WikiSearch result = null;
+		for (String term : terms) {
+			WikiSearch search = search(term);
+			result = result == null ? search : result.and(search);
+		}
+		if (result == null) {
+			result = new WikiSearch(new HashMap<String, Double>());
+		}
+		for (String term : excluded) {
+			result = result.minus(search(term));
+		}
+		List<String> all = new ArrayList<String>(terms);
+		all.addAll(excluded);
+		put(key, result, all, start);
+		return result;
+	}
+
+	private void put(String key, WikiSearch result, List<String> terms, long start) {
+		synchronized (cache) {
+			// an invalidation bumps the generation before it takes the lock
+			// to look up the keys, so either we see it here or it sees our key
+			if (generation.get() != start) {
+				return;
+			}
+			cache.put(key, new Entry(result, terms));
+			if (!cache.containsKey(key)) {
+				// too big to cache
+				return;
+			}
+			for (String term : terms) {
+				Set<String> keys = keysByTerm.get(term);
+				if (keys == null) {
+					keys = new HashSet<String>();
+					keysByTerm.put(term, keys);
+				}
+				keys.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Indexes a page and drops the cached results for its terms.
+	 *
+	 * @param url
+	 * @param paragraphs
+	 */
+	public void indexPage(String url, Elements paragraphs) {
+		TermCounter tc = new TermCounter(url);
+		tc.processElements(paragraphs);
+		indexPage(tc);
+	}
+
+	/**
+	 * Indexes the counts in a TermCounter and drops the cached results for
+	 * its terms.
+	 *
+	 * If the page was indexed before, the results for the terms of the old
+	 * version are dropped too. If the index can't say what those were (see
+	 * SearchIndex.getTerms), the whole cache is dropped.
+	 *
+	 * @param tc
+	 */
+	public void indexPage(TermCounter tc) {
+		String url = tc.getLabel();
+		Set<String> old = index.isIndexed(url) ? index.getTerms(url) : Collections.<String>emptySet();
+		index.indexPage(tc);
+		if (old == null) {
+			invalidateAll();
+			return;
+		}
+		generation.incrementAndGet();
+		synchronized (cache) {
+			invalidate(tc.keySet());
+			invalidate(old);
+		}
+	}
+
+	/**
+	 * Drops the cached results that use any of `terms`; the cache must be locked.
+	 */
+	private void invalidate(Set<String> terms) {
+		for (String term : terms) {
+			Set<String> keys = keysByTerm.get(term);
+			if (keys != null) {
+				for (String key : keys.toArray(new String[0])) {
+					cache.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached result.
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		cache.clear();
+	}
+
+	/**
+	 * Returns the number of terms with cached results, which stays in step
+	 * with the entries in the cache.
+	 *
+	 * @return
+	 */
+	int trackedTermCount() {
+		synchronized (cache) {
+			return keysByTerm.size();
+		}
+	}
+
+	/**
+	 * Returns the underlying cache, for its hit, miss and eviction counts.
+	 *
+	 * @return
+	 */
+	public BoundedCache<String, ?> getCache() {
+		return cache;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		QueryCache cache = new QueryCache(new Index(), new BM25Scorer(), 1 << 20);
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		cache.indexPage(url, wf.fetchWikipedia(url));
+
+		List<String> terms = Arrays.asList("java", "programming");
+		for (int i = 0; i < 3; i++) {
+			cache.searchAnd(terms);
+		}
+		System.out.println(cache.getCache());
+	}
+}
@@ -0,0 +1,146 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for QueryCache and BoundedCache.
+ *
+ */
+public class QueryCacheTest {
+
+	private Index index;
+	private QueryCache cache;
+
+	@Before
+	public void setUp() {
+		index = new Index();
+		for (int i = 0; i < 20; i++) {
+			TermCounter tc = new TermCounter("page" + i);
+			tc.put("common", 1 + i);
+			tc.put(i % 2 == 0 ? "even" : "odd", 1);
+			index.indexPage(tc);
+		}
+		cache = new QueryCache(index, new BM25Scorer(), 1 << 20);
+	}
+
+	@Test
+	public void testHits() {
+		WikiSearch first = cache.searchAnd(Arrays.asList("common", "even"));
+		WikiSearch second = cache.searchAnd(Arrays.asList("common", "even"));
+		assertThat(second, is(sameInstance(first)));
+		assertThat(first.size(), is(10));
+		assertThat(cache.getCache().hitCount(), is(1L));
+	}
+
+	@Test
+	public void testInvalidation() {
+		WikiSearch even = cache.search("even");
+		WikiSearch odd = cache.search("odd");
+
+		// a new page with "even" drops the results that use it, and only those
+		TermCounter tc = new TermCounter("page20");
+		tc.put("even", 5);
+		cache.indexPage(tc);
+		assertThat(cache.search("even").size(), is(11));
+		assertThat(cache.search("even"), is(not(sameInstance(even))));
+		assertThat(cache.search("odd"), is(sameInstance(odd)));
+
+		// re-indexing a page drops the results for its old and new terms
+		WikiSearch common = cache.search("common");
+		even = cache.search("even");
+		tc = new TermCounter("page1");
+		tc.put("even", 1);
+		cache.indexPage(tc);
+		assertThat(cache.search("odd").size(), is(9));
+		assertThat(cache.search("common").size(), is(19));
+		assertThat(cache.search("even").size(), is(12));
+		assertThat(cache.search("common"), is(not(sameInstance(common))));
+		assertThat(cache.search("even"), is(not(sameInstance(even))));
+
+		// but not the others
+		odd = cache.search("odd");
+		tc = new TermCounter("page2");
+		tc.put("even", 7);
+		cache.indexPage(tc);
+		assertThat(cache.search("odd"), is(sameInstance(odd)));
+		assertThat(cache.search("common").size(), is(18));
+	}
+
+	@Test
+	public void testOrScores() {
+		WikiSearch search1 = cache.searchOr(Arrays.asList("even", "odd"));
+		WikiSearch search2 = cache.searchOr(Arrays.asList("odd", "even"));
+		assertThat(search1.size(), is(20));
+		for (String url : search1.urls()) {
+			assertThat(search1.getRelevance(url) > 0, is(true));
+			assertThat(search2.getRelevance(url), is(search1.getRelevance(url)));
+		}
+	}
+
+	@Test
+	public void testEvictedKeys() {
+		// room for a few results at a time
+		cache = new QueryCache(index, new BM25Scorer(), 4096);
+		for (int i = 0; i < 200; i++) {
+			cache.searchAnd(Arrays.asList("common", "term" + i));
+		}
+		assertThat(cache.getCache().evictionCount() > 0, is(true));
+		// only the terms of the entries still cached are tracked
+		assertThat(cache.trackedTermCount() <= cache.getCache().size() * 2, is(true));
+
+		cache.invalidateAll();
+		assertThat(cache.trackedTermCount(), is(0));
+	}
+
+	@Test
+	public void testBudget() {
+		BoundedCache<String, String> lru = new BoundedCache<String, String>(10,
+				new BoundedCache.Weigher<String, String>() {
+					@Override
+					public long weigh(String key, String value) {
+						return value.length();
+					}
+				});
+		lru.put("a", "aaaa");
+		lru.put("b", "bbbb");
+		lru.get("a");
+		lru.put("c", "cccc");
+
+		// b was the least recently used
+		assertThat(lru.get("b"), is((String) null));
+		assertThat(lru.get("a"), is("aaaa"));
+		assertThat(lru.weight(), is(8L));
+		assertThat(lru.evictionCount(), is(1L));
+
+		// too big to cache at all
+		lru.put("d", "ddddddddddddd");
+		assertThat(lru.get("d"), is((String) null));
+		assertThat(lru.size(), is(2));
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>(100, 50, TimeUnit.MILLISECONDS,
+				new BoundedCache.Weigher<String, String>() {
+					@Override
+					public long weigh(String key, String value) {
+						return 1;
+					}
+				});
+		cache.put("a", "aaaa");
+		assertThat(cache.get("a"), is("aaaa"));
+
+		Thread.sleep(100);
+		assertThat(cache.get("a"), is((String) null));
+		assertThat(cache.size(), is(0));
+		assertThat(cache.expirationCount(), is(1L));
+		assertThat(cache.missCount(), is(1L));
+	}
+}
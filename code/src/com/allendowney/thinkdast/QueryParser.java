@@ -0,0 +1,230 @@
+package com.allendowney.thinkdast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses query strings like
+ *
+ *     java AND (compiler OR "virtual machine") NOT coffee
+ *
+ * Terms next to each other are ANDed; AND, OR and NOT must be written in
+ * capitals, and bind NOT first, then AND, then OR. Terms are folded the
+ * way TermCounter folds the text it indexes: punctuation separates them
+ * and they are converted to lower case.
+ *
+ * Given an Analyzer, the words then go through it, as the words of the
+ * pages did: stop words are dropped and the rest stemmed. A phrase that
+ * the Analyzer makes a shingle of becomes a query for that one term.
+ *
+ */
+public class QueryParser {
+
+	private final String text;
+	private final Analyzer analyzer;
+	private int pos = 0;
+
+	// the current token: a word, an operator, "(", ")", a phrase, or null at the end
+	private String token;
+	private boolean quoted;
+
+	private QueryParser(String text, Analyzer analyzer) {
+		this.text = text;
+		this.analyzer = analyzer;
+		nextToken();
+	}
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param text
+	 * @return
+	 * @throws IllegalArgumentException if the query is empty or malformed.
+	 */
+	public static Query parse(String text) {
+		return parse(text, null);
+	}
+
+	/**
+	 * Parses a query, running its words through an Analyzer.
+	 *
+	 * Clauses that are only stop words are left out.
+	 *
+	 * @param text
+	 * @param analyzer  The Analyzer the pages were indexed with, or null.
+	 * @return
+	 * @throws IllegalArgumentException if the query is empty, malformed,
+	 *         or only stop words.
+	 */
+	public static Query parse(String text, Analyzer analyzer) {
+		QueryParser parser = new QueryParser(text, analyzer);
+		Query query = parser.parseOr();
+		if (parser.token != null) {
+			throw parser.error("Unexpected " + parser.token);
+		}
+		if (query == null) {
+			throw parser.error("Only stop words");
+		}
+		return query;
+	}
+
+	// or := and (OR and)*
+	private Query parseOr() {
+		List<Query> clauses = new ArrayList<Query>();
+		addClause(clauses, parseAnd());
+		while (isOperator("OR")) {
+			nextToken();
+			addClause(clauses, parseAnd());
+		}
+		return combine(clauses, false);
+	}
+
+	// and := not (AND? not)*
+	private Query parseAnd() {
+		List<Query> clauses = new ArrayList<Query>();
+		addClause(clauses, parseNot());
+		while (token != null && !isOperator("OR") && !isOperator(")")) {
+			if (isOperator("AND")) {
+				nextToken();
+			}
+			addClause(clauses, parseNot());
+		}
+		return combine(clauses, true);
+	}
+
+	// not := NOT not | primary
+	private Query parseNot() {
+		if (isOperator("NOT")) {
+			nextToken();
+			Query clause = parseNot();
+			return clause == null ? null : new Query.Not(clause);
+		}
+		return parsePrimary();
+	}
+
+	/**
+	 * Adds a clause, unless it was only stop words.
+	 */
+	private static void addClause(List<Query> clauses, Query clause) {
+		if (clause != null) {
+			clauses.add(clause);
+		}
+	}
+
+	/**
+	 * Makes an AND or OR of the clauses, or returns the only one, or null if there are none.
+	 */
+	private static Query combine(List<Query> clauses, boolean and) {
+		if (clauses.size() <= 1) {
+			return clauses.isEmpty() ? null : clauses.get(0);
+		}
+		return and ? new Query.And(clauses) : new Query.Or(clauses);
+	}
+
+	// primary := word | "phrase" | ( or )
+	private Query parsePrimary() {
+		if (token == null) {
+			throw error("Unexpected end of query");
+		}
+		if (isOperator("(")) {
+			nextToken();
+			Query query = parseOr();
+			if (!isOperator(")")) {
+				throw error("Missing )");
+			}
+			nextToken();
+			return query;
+		}
+		if (!quoted && (isOperator(")") || isOperator("AND") || isOperator("OR"))) {
+			throw error("Unexpected " + token);
+		}
+		List<String> words = TermCounter.tokenize(token);
+		if (words.isEmpty()) {
+			throw error("No search terms in " + token);
+		}
+		nextToken();
+		return analyzer == null ? words(words) : analyze(words);
+	}
+
+	private static Query words(List<String> terms) {
+		return terms.size() == 1 ? new Query.Term(terms.get(0)) : new Query.Phrase(terms);
+	}
+
+	/**
+	 * Runs a word or phrase through the Analyzer.
+	 *
+	 * @return A Term, a Phrase, or null for stop words only.
+	 */
+	private Query analyze(List<String> words) {
+		final List<String> terms = new ArrayList<String>();
+		final String[] shingle = new String[1];
+		Analyzer.TokenStream stream = analyzer.newStream();
+		for (String word : words) {
+			stream.add(word, new Analyzer.TermSink() {
+				@Override
+				public void accept(String term, int n) {
+					if (n == 1) {
+						terms.add(term);
+					} else if (n == terms.size()) {
+						// a shingle of every term so far
+						shingle[0] = term;
+					}
+				}
+			});
+		}
+		if (terms.isEmpty()) {
+			return null;
+		}
+		if (terms.size() > 1 && terms.size() <= analyzer.getShingleSize()) {
+			return new Query.Term(shingle[0]);
+		}
+		return words(terms);
+	}
+
+	private boolean isOperator(String operator) {
+		return !quoted && operator.equals(token);
+	}
+
+	private void nextToken() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+		quoted = false;
+		if (pos == text.length()) {
+			token = null;
+			return;
+		}
+		char c = text.charAt(pos);
+		if (c == '(' || c == ')') {
+			token = String.valueOf(c);
+			pos++;
+		} else if (c == '"') {
+			int end = text.indexOf('"', pos + 1);
+			if (end < 0) {
+				throw error("Missing closing quote");
+			}
+			token = text.substring(pos + 1, end);
+			quoted = true;
+			pos = end + 1;
+		} else {
+			int start = pos;
+			while (pos < text.length() && !Character.isWhitespace(text.charAt(pos))
+					&& "()\"".indexOf(text.charAt(pos)) < 0) {
+				pos++;
+			}
+			token = text.substring(start, pos);
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos + " in: " + text);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.out.println(parse("java AND (compiler OR \"virtual machine\") NOT coffee"));
+		System.out.println(parse("programming language NOT java"));
+	}
+}
@@ -0,0 +1,74 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * Tests for QueryParser.
+ *
+ */
+public class QueryParserTest {
+
+	private static String parse(String text) {
+		return QueryParser.parse(text).toString();
+	}
+
+	@Test
+	public void testTerms() {
+		assertThat(parse("Java"), is("java"));
+		assertThat(parse("java programming"), is("(java AND programming)"));
+		assertThat(parse("java AND programming"), is("(java AND programming)"));
+		assertThat(parse("java, programming!"), is("(java AND programming)"));
+	}
+
+	@Test
+	public void testPrecedence() {
+		assertThat(parse("a OR b c"), is("(a OR (b AND c))"));
+		assertThat(parse("a b OR c"), is("((a AND b) OR c)"));
+		assertThat(parse("a NOT b OR c"), is("((a AND NOT b) OR c)"));
+		assertThat(parse("a AND (b OR c)"), is("(a AND (b OR c))"));
+		assertThat(parse("NOT NOT a"), is("NOT NOT a"));
+
+		// operators are only recognized in capitals
+		assertThat(parse("a or b"), is("(a AND or AND b)"));
+	}
+
+	@Test
+	public void testPhrases() {
+		assertThat(parse("\"Java Virtual Machine\" OR jvm"), is("(\"java virtual machine\" OR jvm)"));
+		assertThat(parse("\"java\""), is("java"));
+		assertThat(parse("\"AND\""), is("and"));
+		assertThat(parse("object-oriented"), is("\"object oriented\""));
+	}
+
+	@Test
+	public void testFolding() {
+		// terms are split and folded by TermCounter's tokenizer, whatever the locale
+		Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr"));
+		try {
+			assertThat(parse("TITLE"), is("title"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+		String text = "C++ \u00c9t\u00e9\u2014Caf\u00e9's";
+		assertThat(((Query.Phrase) QueryParser.parse("\"" + text + "\"")).getTerms(), is(TermCounter.tokenize(text)));
+	}
+
+	@Test
+	public void testErrors() {
+		String[] queries = {"", "   ", "a AND", "(a OR b", "a)", "OR a", "\"a b", "\"!\"", "NOT"};
+		for (String query : queries) {
+			try {
+				QueryParser.parse(query);
+				fail("Parsed: " + query);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs parsed queries against a SearchIndex, cheapest work first.
+ *
+ * The cost of a query is an estimate of how many pages it matches, from
+ * the document frequencies in the index. Before a query runs, each AND
+ * is flattened and its clauses are sorted so the one with the fewest
+ * pages runs first and the NOTs run last. Each following clause then only
+ * has to be checked against the pages that are left: if there are far
+ * fewer of them than pages of the term, their counts are looked up one
+ * page at a time (SearchIndex.getCounts(term, urls)) instead of reading
+ * all of the term's pages. As soon as the result is empty, the rest of
+ * the AND is skipped.
+ *
+ * Pages that match an AND are scored by the geometric mean of the scores
+ * of its clauses, which for two clauses is what WikiSearch.and gives,
+ * and does not depend on the order the clauses run in. Pages that match
+ * an OR are scored by the sum of the scores of the clauses they match.
+ *
+ * Phrases need an Index that records positions; on any other index they
+ * match pages that contain all of their terms. A NOT on its own, outside
+ * an AND, matches nothing.
+ *
+ */
+public class QueryPlanner {
+
+	// a term is checked page by page when the pages left are this many times fewer than its pages
+	static final int PROBE_RATIO = 8;
+
+	private final SearchIndex index;
+	private final Scorer scorer;
+	private final Analyzer analyzer;
+
+	/**
+	 * Constructor.
+	 *
+	 * If the index is an Index with an Analyzer, search runs the words of
+	 * queries through it.
+	 *
+	 * @param index
+	 * @param scorer
+	 */
+	public QueryPlanner(SearchIndex index, Scorer scorer) {
+		this(index, scorer, analyzerOf(index));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param scorer
+	 * @param analyzer  The Analyzer the index was built with, which search
+	 *                  runs the words of queries through; or null.
+	 * @throws IllegalArgumentException if the index is an Index with a
+	 *         different Analyzer.
+	 */
+	public QueryPlanner(SearchIndex index, Scorer scorer, Analyzer analyzer) {
+		if (index instanceof Index && analyzer != analyzerOf(index)) {
+			throw new IllegalArgumentException("The index was built with a different Analyzer");
+		}
+		this.index = index;
+		this.scorer = scorer;
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * Returns the Analyzer an index was built with, if it records one.
+	 */
+	private static Analyzer analyzerOf(SearchIndex index) {
+		return index instanceof Index ? ((Index) index).getAnalyzer() : null;
+	}
+
+	/**
+	 * Parses and runs a query.
+	 *
+	 * @param text
+	 * @return
+	 * @throws IllegalArgumentException if the query is malformed.
+	 */
+	public WikiSearch search(String text) {
+		return execute(QueryParser.parse(text, analyzer));
+	}
+
+	/**
+	 * Plans and runs a query.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public WikiSearch execute(Query query) {
+		return run(plan(query));
+	}
+
+	/**
+	 * Rewrites a query into the order it will run in.
+	 *
+	 * Nested ANDs and ORs are flattened, and the clauses of each AND are
+	 * sorted by cost, with the NOTs last.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public Query plan(Query query) {
+		if (query instanceof Query.Not) {
+			return new Query.Not(plan(((Query.Not) query).getClause()));
+		}
+		if (query instanceof Query.Or) {
+			List<Query> clauses = new ArrayList<Query>();
+			for (Query clause : ((Query.Or) query).getClauses()) {
+				Query planned = plan(clause);
+				if (planned instanceof Query.Or) {
+					clauses.addAll(((Query.Or) planned).getClauses());
+				} else {
+					clauses.add(planned);
+				}
+			}
+			return new Query.Or(clauses);
+		}
+		if (query instanceof Query.And) {
+			List<Query> clauses = new ArrayList<Query>();
+			for (Query clause : ((Query.And) query).getClauses()) {
+				Query planned = plan(clause);
+				if (planned instanceof Query.And) {
+					clauses.addAll(((Query.And) planned).getClauses());
+				} else {
+					clauses.add(planned);
+				}
+			}
+			final Map<Query, Long> costs = new HashMap<Query, Long>();
+			for (Query clause : clauses) {
+				costs.put(clause, cost(clause));
+			}
+			Collections.sort(clauses, new Comparator<Query>() {
+				@Override
+				public int compare(Query q1, Query q2) {
+					boolean not1 = q1 instanceof Query.Not;
+					boolean not2 = q2 instanceof Query.Not;
+					if (not1 != not2) {
+						return not1 ? 1 : -1;
+					}
+					return Long.compare(costs.get(q1), costs.get(q2));
+				}
+			});
+			return new Query.And(clauses);
+		}
+		return query;
+	}
+
+	/**
+	 * Estimates the number of pages a query matches.
+	 *
+	 * For a NOT, this is the number of pages it removes.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public long cost(Query query) {
+		if (query instanceof Query.Term) {
+			return index.getDocFreq(((Query.Term) query).getTerm());
+		}
+		if (query instanceof Query.Phrase) {
+			long min = Long.MAX_VALUE;
+			for (String term : ((Query.Phrase) query).getTerms()) {
+				min = Math.min(min, index.getDocFreq(term));
+			}
+			return min;
+		}
+		if (query instanceof Query.Not) {
+			return cost(((Query.Not) query).getClause());
+		}
+		if (query instanceof Query.Or) {
+			long sum = 0;
+			for (Query clause : ((Query.Or) query).getClauses()) {
+				sum += cost(clause);
+			}
+			return Math.min(sum, index.numDocs());
+		}
+		// an AND matches at most as many pages as its smallest clause
+		long min = Long.MAX_VALUE;
+		for (Query clause : ((Query.And) query).getClauses()) {
+			if (!(clause instanceof Query.Not)) {
+				min = Math.min(min, cost(clause));
+			}
+		}
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	private WikiSearch run(Query query) {
+		if (query instanceof Query.Term) {
+			return WikiSearch.search(((Query.Term) query).getTerm(), index, scorer);
+		}
+		if (query instanceof Query.Phrase) {
+			List<String> terms = ((Query.Phrase) query).getTerms();
+			if (index instanceof Index && ((Index) index).recordsPositions()) {
+				return WikiSearch.searchPhrase(terms, (Index) index, scorer);
+			}
+			List<Query> clauses = new ArrayList<Query>();
+			for (String term : terms) {
+				clauses.add(new Query.Term(term));
+			}
+			return run(plan(new Query.And(clauses)));
+		}
+		if (query instanceof Query.Or) {
+			List<WikiSearch> results = new ArrayList<WikiSearch>();
+			for (Query clause : ((Query.Or) query).getClauses()) {
+				results.add(run(clause));
+			}
+			return union(results);
+		}
+		if (query instanceof Query.And) {
+			return runAnd(((Query.And) query).getClauses());
+		}
+		return empty();
+	}
+
+	/**
+	 * Runs the clauses of a planned AND in order.
+	 */
+	private WikiSearch runAnd(List<Query> clauses) {
+		WikiSearch result = null;
+		List<WikiSearch> parts = new ArrayList<WikiSearch>();
+		for (Query clause : clauses) {
+			if (result == null) {
+				if (clause instanceof Query.Not) {
+					return empty();
+				}
+				result = run(clause);
+				parts.add(result);
+			} else if (clause instanceof Query.Not) {
+				result = result.minus(runOn(((Query.Not) clause).getClause(), result));
+			} else {
+				WikiSearch part = runOn(clause, result);
+				parts.add(part);
+				result = result.and(part);
+			}
+			if (result.size() == 0) {
+				return result;
+			}
+		}
+		if (result == null) {
+			return empty();
+		}
+
+		Map<String, Double> map = new HashMap<String, Double>(result.size() * 2);
+		for (String url : result.urls()) {
+			double product = 1;
+			for (WikiSearch part : parts) {
+				product *= part.getRelevance(url);
+			}
+			map.put(url, Math.pow(product, 1.0 / parts.size()));
+		}
+		return new WikiSearch(map);
+	}
+
+	/**
+	 * Runs a clause, but only needs to get the pages in `candidates` right.
+	 */
+	private WikiSearch runOn(Query clause, WikiSearch candidates) {
+		if (clause instanceof Query.Term) {
+			String term = ((Query.Term) clause).getTerm();
+			if ((long) candidates.size() * PROBE_RATIO < index.getDocFreq(term)) {
+				return WikiSearch.search(term, candidates.urls(), index, scorer);
+			}
+		}
+		return run(clause);
+	}
+
+	/**
+	 * Combines the results of the clauses of an OR.
+	 *
+	 * A page's score is the sum of its scores in the results it is in, so
+	 * a page that matches one clause keeps its score, a page that matches
+	 * more scores higher, and the order of the clauses doesn't matter.
+	 *
+	 * @param results
+	 * @return
+	 */
+	static WikiSearch union(List<WikiSearch> results) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (WikiSearch result : results) {
+			for (String url : result.urls()) {
+				Double score = map.get(url);
+				double relevance = result.getRelevance(url);
+				map.put(url, score == null ? relevance : score + relevance);
+			}
+		}
+		return new WikiSearch(map);
+	}
+
+	private static WikiSearch empty() {
+		return new WikiSearch(new HashMap<String, Double>());
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		Index index = new Index(true);
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		QueryPlanner planner = new QueryPlanner(index, new BM25Scorer());
+		Query query = QueryParser.parse("the AND programming AND \"virtual machine\" NOT coffee");
+		System.out.println(planner.plan(query));
+		System.out.println(planner.execute(query).sort());
+	}
+}
@@ -0,0 +1,111 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for QueryPlanner.
+ *
+ */
+public class QueryPlannerTest {
+
+	private int fullReads;
+	private Index index;
+	private QueryPlanner planner;
+
+	@Before
+	public void setUp() {
+		// counts the lookups that read every page of a term
+		index = new Index() {
+			@Override
+			public Map<String, Integer> getCounts(String term) {
+				fullReads++;
+				return super.getCounts(term);
+			}
+		};
+		for (int i = 0; i < 200; i++) {
+			TermCounter tc = new TermCounter("page" + i);
+			tc.put("common", 1 + i % 7);
+			if (i % 2 == 0) {
+				tc.put("even", 1);
+			}
+			if (i % 50 == 0) {
+				tc.put("rare", 2);
+			}
+			index.indexPage(tc);
+		}
+		planner = new QueryPlanner(index, new BM25Scorer());
+	}
+
+	@Test
+	public void testPlan() {
+		Query query = QueryParser.parse("NOT even common (rare AND missing)");
+		assertThat(planner.plan(query).toString(), is("(missing AND rare AND common AND NOT even)"));
+		assertThat(planner.cost(query), is(0L));
+		assertThat(planner.cost(QueryParser.parse("rare OR even")), is(104L));
+	}
+
+	@Test
+	public void testOrder() {
+		WikiSearch good = planner.search("rare AND common AND NOT even");
+		WikiSearch bad = planner.search("NOT even AND common AND rare");
+		assertThat(good.size(), is(0));
+		assertThat(bad.size(), is(0));
+
+		fullReads = 0;
+		good = planner.search("rare common even");
+		assertThat(good.size(), is(4));
+		// only "rare" is read in full; the others are checked on its 4 pages
+		assertThat(fullReads, is(1));
+
+		bad = planner.search("common even rare");
+		assertThat(bad.urls(), is(good.urls()));
+		for (String url : good.urls()) {
+			assertThat(bad.getRelevance(url), is(good.getRelevance(url)));
+		}
+	}
+
+	@Test
+	public void testShortCircuit() {
+		fullReads = 0;
+		assertThat(planner.search("common AND missing AND even").size(), is(0));
+		assertThat(fullReads, is(1));
+	}
+
+	@Test
+	public void testOr() {
+		WikiSearch search = planner.search("rare OR (even NOT common)");
+		assertThat(search.size(), is(4));
+		assertThat(planner.search("NOT rare").size(), is(0));
+	}
+
+	@Test
+	public void testOrScores() {
+		Index index = new Index();
+		TermCounter tc = new TermCounter("p1");
+		tc.put("java", 3);
+		index.indexPage(tc);
+		tc = new TermCounter("p2");
+		tc.put("coffee", 2);
+		index.indexPage(tc);
+		tc = new TermCounter("p3");
+		tc.put("tea", 1);
+		index.indexPage(tc);
+		QueryPlanner planner = new QueryPlanner(index, new BM25Scorer());
+
+		// each page matches one clause, and keeps its score for it
+		WikiSearch search1 = planner.search("java OR coffee");
+		WikiSearch search2 = planner.search("coffee OR java");
+		assertThat(search1.size(), is(2));
+		for (String url : search1.urls()) {
+			assertThat(search1.getRelevance(url) > 0, is(true));
+			assertThat(search2.getRelevance(url), is(search1.getRelevance(url)));
+		}
+		assertThat(search1.getRelevance("p1"), is(planner.search("java").getRelevance("p1")));
+	}
+}
@@ -0,0 +1,24 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Computes how much one search term contributes to a page's relevance.
+ *
+ * Implementations should not decrease as `tf` grows, or increase as
+ * `docLength` grows, so that a score computed from the largest tf and
+ * the shortest page is an upper bound for the term.
+ *
+ */
+public interface Scorer {
+
+	/**
+	 * Returns the score of one term on one page.
+	 *
+	 * @param tf            Number of times the term appears on the page.
+	 * @param docLength     Number of terms on the page.
+	 * @param df            Number of pages that contain the term.
+	 * @param numDocs       Number of pages in the index.
+	 * @param avgDocLength  Average number of terms per page.
+	 * @return
+	 */
+	double score(int tf, int docLength, int df, int numDocs, double avgDocLength);
+}
@@ -0,0 +1,61 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Scorer implementations.
+ *
+ */
+public class ScorerTest {
+
+	private Scorer[] scorers = {new TfIdfScorer(), new BM25Scorer()};
+
+	/**
+	 * Scores are 0 for absent terms and grow with the term count.
+	 */
+	@Test
+	public void testTermFrequency() {
+		for (Scorer scorer: scorers) {
+			assertThat(scorer.score(0, 100, 5, 100, 100.0), is(0.0));
+			double one = scorer.score(1, 100, 5, 100, 100.0);
+			double ten = scorer.score(10, 100, 5, 100, 100.0);
+			assertThat(one, greaterThan(0.0));
+			assertThat(ten, greaterThan(one));
+		}
+	}
+
+	/**
+	 * Rare terms score higher than common ones.
+	 */
+	@Test
+	public void testDocumentFrequency() {
+		for (Scorer scorer: scorers) {
+			double rare = scorer.score(3, 100, 2, 100, 100.0);
+			double common = scorer.score(3, 100, 90, 100, 100.0);
+			assertThat(rare, greaterThan(common));
+			assertThat(scorer.score(3, 100, 100, 100, 100.0), greaterThan(0.0));
+		}
+	}
+
+	/**
+	 * BM25 discounts long pages and saturates the term count.
+	 */
+	@Test
+	public void testBM25() {
+		Scorer scorer = new BM25Scorer();
+		double shortPage = scorer.score(3, 50, 10, 100, 100.0);
+		double longPage = scorer.score(3, 400, 10, 100, 100.0);
+		assertThat(shortPage, greaterThan(longPage));
+
+		// with b = 0 the page length does not matter
+		scorer = new BM25Scorer(1.2, 0);
+		assertThat(scorer.score(3, 50, 10, 100, 100.0), is(scorer.score(3, 400, 10, 100, 100.0)));
+
+		// the score approaches idf * (k1 + 1) as tf grows
+		double idf = Math.log(1.0 + (100 - 10 + 0.5) / (10 + 0.5));
+		assertThat(scorer.score(1000000, 100, 10, 100, 100.0), closeTo(idf * 2.2, 1e-4));
+	}
+}
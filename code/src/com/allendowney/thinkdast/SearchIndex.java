@@ -0,0 +1,160 @@
+package com.allendowney.thinkdast;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.select.Elements;
+
+/**
+ * The operations that WikiSearch and WikiCrawler need from an index.
+ *
+ * Implemented by Index (on the heap), JedisIndex (in Redis),
+ * InvertedIndex (compressed, on the heap) and SegmentedIndex (on disk),
+ * so they can be swapped or benchmarked without changing the callers.
+ *
+ */
+public interface SearchIndex {
+
+	/**
+	 * Add a page to the index.
+	 *
+	 * @param url         URL of the page.
+	 * @param paragraphs  Collection of elements that should be indexed.
+	 */
+	void indexPage(String url, Elements paragraphs);
+
+	/**
+	 * Adds the counts in a TermCounter, labeled with its URL, to the index.
+	 *
+	 * If the page was indexed before, the new counts replace the old.
+	 *
+	 * @param tc
+	 */
+	void indexPage(TermCounter tc);
+
+	/**
+	 * Looks up a search term and returns a map from URL to count.
+	 *
+	 * @param term
+	 * @return
+	 */
+	Map<String, Integer> getCounts(String term);
+
+	/**
+	 * Looks up a search term, and the lengths of the pages it is on.
+	 *
+	 * Scoring needs both. Remote indexes should override this to read the
+	 * lengths along with the counts.
+	 *
+	 * @param term
+	 * @param lengths  Map that the length of each page is added to.
+	 * @return Map from URL to count.
+	 */
+	default Map<String, Integer> getCountsAndLengths(String term, Map<String, Integer> lengths) {
+		Map<String, Integer> counts = getCounts(term);
+		lengths.putAll(getDocLengths(counts.keySet()));
+		return counts;
+	}
+
+	/**
+	 * Looks up the counts of `term` on some pages only.
+	 *
+	 * Lets a query check a few candidate pages against a term with many
+	 * pages. Indexes that can look up one page cheaply should override this.
+	 *
+	 * @param term
+	 * @param urls
+	 * @return Map from URL to count, for the pages that contain `term`.
+	 */
+	default Map<String, Integer> getCounts(String term, Collection<String> urls) {
+		Map<String, Integer> counts = getCounts(term);
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (String url : urls) {
+			Integer count = counts.get(url);
+			if (count != null) {
+				map.put(url, count);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Checks whether a page has been indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	boolean isIndexed(String url);
+
+	/**
+	 * Returns the terms on a page, or null if the index can't tell.
+	 *
+	 * Lets a cache find the results that indexing the page again changes.
+	 *
+	 * @param url
+	 * @return The terms, empty if the page is not indexed, or null.
+	 */
+	default Set<String> getTerms(String url) {
+		return null;
+	}
+
+	/**
+	 * Returns the number of pages that contain `term`.
+	 *
+	 * @param term
+	 * @return
+	 */
+	int getDocFreq(String term);
+
+	/**
+	 * Returns the number of terms on a page, or 0 if it is not indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	int getDocLength(String url);
+
+	/**
+	 * Returns the lengths of several pages.
+	 *
+	 * Remote indexes should override this to look them up in one call.
+	 *
+	 * @param urls
+	 * @return Map from URL to length.
+	 */
+	default Map<String, Integer> getDocLengths(Collection<String> urls) {
+		Map<String, Integer> map = new HashMap<String, Integer>(urls.size() * 2);
+		for (String url : urls) {
+			map.put(url, getDocLength(url));
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the number of pages in the index.
+	 *
+	 * @return
+	 */
+	int numDocs();
+
+	/**
+	 * Returns the average number of terms per page.
+	 *
+	 * @return
+	 */
+	double avgDocLength();
+
+	/**
+	 * Returns the number of pages and their average length.
+	 *
+	 * Remote indexes should override this to read both in one call, so
+	 * they agree even while other clients are indexing.
+	 *
+	 * @return
+	 */
+	default CorpusStats getStats() {
+		return new CorpusStats(numDocs(), avgDocLength());
+	}
+}
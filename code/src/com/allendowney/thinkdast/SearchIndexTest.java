@@ -0,0 +1,81 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the SearchIndex implementations agree with each other.
+ *
+ */
+public class SearchIndexTest {
+
+	private static final String URL1 = "https://en.wikipedia.org/wiki/Java_(Programming_Language)";
+	private static final String URL2 = "https://en.wikipedia.org/wiki/Programming_language";
+
+	private File directory;
+	private SegmentedIndex segmented;
+	private List<SearchIndex> indexes;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("segments").toFile();
+		segmented = new SegmentedIndex(directory, 1, 10);
+		indexes = Arrays.asList(new Index(), new InvertedIndex(), segmented);
+
+		WikiFetcher wf = new WikiFetcher();
+		for (String url : Arrays.asList(URL1, URL2)) {
+			for (SearchIndex index : indexes) {
+				index.indexPage(url, wf.readWikipedia(url));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		segmented.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testSameResults() {
+		SearchIndex expected = indexes.get(0);
+		for (SearchIndex index : indexes) {
+			assertThat(index.isIndexed(URL1), is(true));
+			assertThat(index.isIndexed("https://en.wikipedia.org/wiki/Nothing"), is(false));
+			assertThat(index.numDocs(), is(2));
+			assertThat(index.avgDocLength(), is(expected.avgDocLength()));
+			assertThat(index.getDocLength(URL1), is(4462));
+			for (String term : Arrays.asList("occur", "java", "the", "not there")) {
+				assertThat(index.getCounts(term), is(expected.getCounts(term)));
+				assertThat(index.getDocFreq(term), is(expected.getDocFreq(term)));
+				List<String> urls = Arrays.asList(URL2, "https://en.wikipedia.org/wiki/Nothing");
+				assertThat(index.getCounts(term, urls), is(expected.getCounts(term, urls)));
+			}
+		}
+	}
+
+	@Test
+	public void testWikiSearch() {
+		Scorer scorer = new BM25Scorer();
+		WikiSearch expected = WikiSearch.search("programming", indexes.get(0), scorer);
+		for (SearchIndex index : indexes) {
+			WikiSearch search = WikiSearch.search("programming", index, scorer);
+			for (String url : Arrays.asList(URL1, URL2)) {
+				assertThat(search.getRelevance(url), is(expected.getRelevance(url)));
+			}
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.allendowney.thinkdast;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes an InvertedIndex to a segment file that MappedSegment can open.
+ *
+ * The layout is described in MappedSegment. Strings are sorted by their
+ * UTF-8 bytes so the reader can binary search them in place. The file is
+ * written next to its destination and renamed when complete, so readers
+ * never see a partial segment.
+ *
+ */
+public class SegmentWriter {
+
+	/**
+	 * Compares byte arrays as unsigned bytes, which is the order of the
+	 * strings they encode in UTF-8.
+	 */
+	static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	/**
+	 * Writes `index` to `file`, replacing it if it exists.
+	 *
+	 * @param index
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(InvertedIndex index, File file) throws IOException {
+		int maxDoc = index.maxDoc();
+
+		// URLs, in docId order and then the live ones in byte order
+		byte[][] urls = new byte[maxDoc][];
+		List<Integer> live = new ArrayList<Integer>();
+		for (int docId = 0; docId < maxDoc; docId++) {
+			urls[docId] = index.getURL(docId).getBytes(StandardCharsets.UTF_8);
+			if (!index.isDeleted(docId)) {
+				live.add(docId);
+			}
+		}
+		live.sort(new Comparator<Integer>() {
+			@Override
+			public int compare(Integer d1, Integer d2) {
+				return UNSIGNED.compare(urls[d1], urls[d2]);
+			}
+		});
+
+		// terms in byte order
+		List<byte[]> terms = new ArrayList<byte[]>();
+		for (String term : index.keySet()) {
+			terms.add(term.getBytes(StandardCharsets.UTF_8));
+		}
+		terms.sort(UNSIGNED);
+		PostingsList[] postings = new PostingsList[terms.size()];
+		for (int t = 0; t < postings.length; t++) {
+			postings[t] = index.get(new String(terms.get(t), StandardCharsets.UTF_8));
+		}
+
+		// work out where each section starts
+		long urlDataLength = 0;
+		for (byte[] url : urls) {
+			urlDataLength += 4 + url.length;
+		}
+		long termDataLength = 0;
+		for (byte[] term : terms) {
+			termDataLength += 4 + term.length;
+		}
+		long docTableOffset = MappedSegment.HEADER_SIZE;
+		long urlIndexOffset = docTableOffset + (long) maxDoc * MappedSegment.DOC_ENTRY_SIZE;
+		long urlDataOffset = urlIndexOffset + 4L * live.size();
+		long termTableOffset = urlDataOffset + urlDataLength;
+		long termDataOffset = termTableOffset + (long) terms.size() * MappedSegment.TERM_ENTRY_SIZE;
+		long postingsOffset = termDataOffset + termDataLength;
+
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MappedSegment.MAGIC);
+			out.writeInt(MappedSegment.VERSION);
+			out.writeInt(maxDoc);
+			out.writeInt(live.size());
+			out.writeLong(index.totalLength());
+			out.writeInt(terms.size());
+			out.writeLong(docTableOffset);
+			out.writeLong(urlIndexOffset);
+			out.writeLong(urlDataOffset);
+			out.writeLong(termTableOffset);
+			out.writeLong(termDataOffset);
+			out.writeLong(postingsOffset);
+
+			// doc table: length, URL position, deleted flag
+			int urlPos = 0;
+			for (int docId = 0; docId < maxDoc; docId++) {
+				out.writeInt(index.getDocLength(docId));
+				out.writeInt(urlPos);
+				out.writeInt(index.isDeleted(docId) ? 1 : 0);
+				urlPos += 4 + urls[docId].length;
+			}
+			for (int docId : live) {
+				out.writeInt(docId);
+			}
+			for (byte[] url : urls) {
+				out.writeInt(url.length);
+				out.write(url);
+			}
+
+			// term table: string position, stats, and where the postings are
+			int termPos = 0;
+			long postingsPos = 0;
+			for (int t = 0; t < postings.length; t++) {
+				PostingsList list = postings[t];
+				out.writeInt(termPos);
+				out.writeInt(list.size());
+				out.writeInt(list.maxFreq());
+				out.writeInt(list.minDocLength());
+				out.writeLong(postingsPos);
+				out.writeInt(list.skipCount());
+				out.writeInt(list.docBytesLength());
+				out.writeInt(list.freqBytesLength());
+				out.writeInt(index.getDocFreq(new String(terms.get(t), StandardCharsets.UTF_8)));
+				termPos += 4 + terms.get(t).length;
+				postingsPos += 12L * list.skipCount() + list.docBytesLength() + list.freqBytesLength();
+			}
+			for (byte[] term : terms) {
+				out.writeInt(term.length);
+				out.write(term);
+			}
+			for (PostingsList list : postings) {
+				list.writeTo(out);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Indexes two pages, writes them to a segment, and reads it back.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		InvertedIndex index = new InvertedIndex();
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		File file = new File("wiki.seg");
+		write(index, file);
+		MappedSegment segment = new MappedSegment(file);
+		System.out.println(file + ": " + file.length() + " bytes, " + segment.numDocs() + " pages");
+		System.out.println(segment.getCounts("java"));
+		System.out.println(Arrays.asList(segment.getDocFreq("java"), segment.getDocFreq("programming")));
+	}
+}
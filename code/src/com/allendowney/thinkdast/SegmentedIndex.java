@@ -0,0 +1,547 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.select.Elements;
+
+/**
+ * A log-structured index: an in-memory buffer plus immutable segments.
+ *
+ * Pages are indexed into an InvertedIndex buffer. When the buffer holds
+ * `maxBufferedDocs` pages, or flush is called, it is written out as a
+ * MappedSegment and becomes searchable. A background thread merges runs
+ * of `mergeFactor` adjacent segments of about the same size: segments
+ * are grouped into tiers by their number of pages, and each merge moves
+ * pages up a tier. So there are fewer than `mergeFactor` segments per
+ * tier, and each page is rewritten O(log n) times.
+ *
+ * Searches read a Snapshot: an immutable list of segments, each with the
+ * set of docIds that newer segments have replaced. Flushes and merges
+ * publish a new Snapshot with one volatile write, so readers never wait
+ * for writers, and a Snapshot stays consistent for as long as it is used.
+ *
+ * Pages in the buffer are not searchable until the next flush, except
+ * through isIndexed, which checks the buffer so a crawler does not index
+ * the same page twice.
+ *
+ */
+public class SegmentedIndex implements SearchIndex, Closeable {
+
+	private final File directory;
+	private final int maxBufferedDocs;
+	private final int mergeFactor;
+
+	// pages indexed since the last flush; guarded by `this`
+	private InvertedIndex buffer = new InvertedIndex();
+	private int nextSegment = 0;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.<Leaf>emptyList());
+
+	private final ExecutorService merger = Executors.newSingleThreadExecutor();
+	private volatile IOException mergeError;
+
+	// pages copied by merges; written only by the merge thread
+	private volatile long mergedDocs = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory        Where to write segment files.
+	 * @param maxBufferedDocs  Number of pages to buffer before a flush.
+	 * @param mergeFactor      Number of segments to merge at a time.
+	 */
+	public SegmentedIndex(File directory, int maxBufferedDocs, int mergeFactor) {
+		if (maxBufferedDocs < 1 || mergeFactor < 2) {
+			throw new IllegalArgumentException("maxBufferedDocs must be positive and mergeFactor at least 2");
+		}
+		directory.mkdirs();
+		this.directory = directory;
+		this.maxBufferedDocs = maxBufferedDocs;
+		this.mergeFactor = mergeFactor;
+	}
+
+	/**
+	 * A segment and the docIds in it that newer segments have replaced.
+	 *
+	 * Leaves are never modified; a new deletion makes a new Leaf.
+	 */
+	private static class Leaf {
+		final MappedSegment segment;
+		final File file;
+		final BitSet deleted;
+		final int numDocs;
+		final long totalLength;
+
+		Leaf(MappedSegment segment, File file, BitSet deleted) {
+			this.segment = segment;
+			this.file = file;
+			this.deleted = deleted;
+			int docs = segment.numDocs();
+			long length = segment.totalLength();
+			for (int doc = deleted.nextSetBit(0); doc >= 0; doc = deleted.nextSetBit(doc + 1)) {
+				docs--;
+				length -= segment.getDocLength(doc);
+			}
+			this.numDocs = docs;
+			this.totalLength = length;
+		}
+
+		boolean isLive(int docId) {
+			return !segment.isDeleted(docId) && !deleted.get(docId);
+		}
+
+		Leaf delete(BitSet more) {
+			BitSet union = (BitSet) deleted.clone();
+			union.or(more);
+			return new Leaf(segment, file, union);
+		}
+	}
+
+	/**
+	 * A consistent, read-only view of the searchable pages.
+	 */
+	public static class Snapshot {
+		// oldest first
+		private final List<Leaf> leaves;
+		private final int numDocs;
+		private final long totalLength;
+
+		private Snapshot(List<Leaf> leaves) {
+			this.leaves = Collections.unmodifiableList(leaves);
+			int docs = 0;
+			long length = 0;
+			for (Leaf leaf : leaves) {
+				docs += leaf.numDocs;
+				length += leaf.totalLength;
+			}
+			this.numDocs = docs;
+			this.totalLength = length;
+		}
+
+		/**
+		 * Looks up a search term and returns a map from URL to count.
+		 *
+		 * @param term
+		 * @return
+		 */
+		public Map<String, Integer> getCounts(String term) {
+			Map<String, Integer> map = new HashMap<String, Integer>();
+			for (Leaf leaf : leaves) {
+				PostingsCursor cursor = leaf.segment.postings(term);
+				if (cursor == null) {
+					continue;
+				}
+				for (int doc = cursor.docId(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+					if (leaf.isLive(doc)) {
+						map.put(leaf.segment.getURL(doc), cursor.freq());
+					}
+				}
+			}
+			return map;
+		}
+
+		/**
+		 * Checks whether a page is in the snapshot.
+		 *
+		 * @param url
+		 * @return
+		 */
+		public boolean isIndexed(String url) {
+			for (Leaf leaf : leaves) {
+				int docId = leaf.segment.getDocId(url);
+				if (docId >= 0 && leaf.isLive(docId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the number of postings for `term`.
+		 *
+		 * @param term
+		 * @return
+		 */
+		public int getDocFreq(String term) {
+			int df = 0;
+			for (Leaf leaf : leaves) {
+				df += leaf.segment.getDocFreq(term);
+			}
+			return df;
+		}
+
+		/**
+		 * Returns the number of terms on a page, or 0 if it is not in the snapshot.
+		 *
+		 * @param url
+		 * @return
+		 */
+		public int getDocLength(String url) {
+			for (Leaf leaf : leaves) {
+				int docId = leaf.segment.getDocId(url);
+				if (docId >= 0 && leaf.isLive(docId)) {
+					return leaf.segment.getDocLength(docId);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Returns the number of pages in the snapshot.
+		 *
+		 * @return
+		 */
+		public int numDocs() {
+			return numDocs;
+		}
+
+		/**
+		 * Returns the average number of terms per page.
+		 *
+		 * @return
+		 */
+		public double avgDocLength() {
+			return numDocs == 0 ? 0 : (double) totalLength / numDocs;
+		}
+
+		/**
+		 * Returns the number of segments.
+		 *
+		 * @return
+		 */
+		public int numSegments() {
+			return leaves.size();
+		}
+	}
+
+	/**
+	 * Returns the current snapshot.
+	 *
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Add a page to the index.
+	 *
+	 * @param url         URL of the page.
+	 * @param paragraphs  Collection of elements that should be indexed.
+	 */
+	public void indexPage(String url, Elements paragraphs) {
+		// count the terms before taking the lock
+		TermCounter tc = new TermCounter(url);
+		tc.processElements(paragraphs);
+		indexPage(tc);
+	}
+
+	/**
+	 * Adds the counts in a TermCounter, labeled with its URL, to the buffer.
+	 *
+	 * @param tc
+	 * @throws UncheckedIOException if a flush fails.
+	 */
+	public synchronized void indexPage(TermCounter tc) {
+		buffer.indexPage(tc);
+		if (buffer.numDocs() >= maxBufferedDocs) {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered pages to a new segment and makes them searchable.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (mergeError != null) {
+			throw mergeError;
+		}
+		if (buffer.numDocs() == 0) {
+			return;
+		}
+		File file = new File(directory, "segment_" + nextSegment++ + ".seg");
+		SegmentWriter.write(buffer, file);
+		Leaf added = new Leaf(new MappedSegment(file), file, new BitSet());
+
+		// older copies of the flushed pages are now deleted
+		List<Leaf> leaves = new ArrayList<Leaf>();
+		for (Leaf leaf : snapshot.leaves) {
+			BitSet replaced = new BitSet();
+			for (int doc = 0; doc < buffer.maxDoc(); doc++) {
+				if (!buffer.isDeleted(doc)) {
+					int old = leaf.segment.getDocId(buffer.getURL(doc));
+					if (old >= 0 && leaf.isLive(old)) {
+						replaced.set(old);
+					}
+				}
+			}
+			leaves.add(replaced.isEmpty() ? leaf : leaf.delete(replaced));
+		}
+		leaves.add(added);
+		snapshot = new Snapshot(leaves);
+		buffer = new InvertedIndex();
+
+		if (leaves.size() >= mergeFactor) {
+			merger.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						maybeMerge();
+					} catch (IOException e) {
+						mergeError = e;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the tier of a segment with `docs` pages: 0 for up to
+	 * maxBufferedDocs pages, 1 for up to mergeFactor times that, and so on.
+	 */
+	private int tier(long docs) {
+		int tier = 0;
+		for (long limit = maxBufferedDocs; docs > limit; limit *= mergeFactor) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Merges a run of `mergeFactor` adjacent segments in the same tier,
+	 * the lowest tier that has one, and repeats until no tier does.
+	 *
+	 * Merging segments of about the same size moves their pages up one
+	 * tier, so each page is copied about log(n / maxBufferedDocs) times,
+	 * rather than every time the big segments are merged with a new one.
+	 *
+	 * Runs on the merge thread. The merged segment is written without
+	 * holding the lock; only the swap into the snapshot takes it.
+	 *
+	 * @throws IOException
+	 */
+	void maybeMerge() throws IOException {
+		List<Leaf> leaves = snapshot.leaves;
+		int start = -1;
+		int lowest = Integer.MAX_VALUE;
+		int runStart = 0;
+		for (int i = 0; i < leaves.size(); i++) {
+			int tier = tier(leaves.get(i).numDocs);
+			if (tier != tier(leaves.get(runStart).numDocs)) {
+				runStart = i;
+			}
+			if (i - runStart + 1 >= mergeFactor && tier < lowest) {
+				lowest = tier;
+				start = i - mergeFactor + 1;
+			}
+		}
+		if (start < 0) {
+			return;
+		}
+		List<Leaf> inputs = new ArrayList<Leaf>(leaves.subList(start, start + mergeFactor));
+
+		// copy the live pages and their postings, renumbering the docIds
+		InvertedIndex merged = new InvertedIndex();
+		long copied = 0;
+		int[][] docMaps = new int[inputs.size()][];
+		TreeSet<String> terms = new TreeSet<String>();
+		for (int i = 0; i < inputs.size(); i++) {
+			Leaf leaf = inputs.get(i);
+			MappedSegment segment = leaf.segment;
+			docMaps[i] = new int[segment.maxDoc()];
+			for (int doc = 0; doc < segment.maxDoc(); doc++) {
+				docMaps[i][doc] = leaf.isLive(doc) ? merged.addDoc(segment.getURL(doc), segment.getDocLength(doc)) : -1;
+				if (docMaps[i][doc] >= 0) {
+					copied++;
+				}
+			}
+			for (int t = 0; t < segment.numTerms(); t++) {
+				terms.add(segment.getTerm(t));
+			}
+		}
+		for (String term : terms) {
+			for (int i = 0; i < inputs.size(); i++) {
+				PostingsCursor cursor = inputs.get(i).segment.postings(term);
+				if (cursor == null) {
+					continue;
+				}
+				for (int doc = cursor.docId(); doc != PostingsCursor.NO_MORE_DOCS; doc = cursor.next()) {
+					if (docMaps[i][doc] >= 0) {
+						merged.addPosting(term, docMaps[i][doc], cursor.freq());
+					}
+				}
+			}
+		}
+
+		File file;
+		synchronized (this) {
+			file = new File(directory, "segment_" + nextSegment++ + ".seg");
+		}
+		SegmentWriter.write(merged, file);
+		MappedSegment segment = new MappedSegment(file);
+		mergedDocs += copied;
+
+		synchronized (this) {
+			// flushes may have deleted more of the inputs while we worked
+			List<Leaf> current = new ArrayList<Leaf>(snapshot.leaves);
+			int at = -1;
+			for (int i = 0; i < current.size(); i++) {
+				if (current.get(i).segment == inputs.get(0).segment) {
+					at = i;
+					break;
+				}
+			}
+			BitSet deleted = new BitSet();
+			for (int i = 0; i < inputs.size(); i++) {
+				BitSet now = current.get(at + i).deleted;
+				for (int doc = now.nextSetBit(0); doc >= 0; doc = now.nextSetBit(doc + 1)) {
+					if (docMaps[i][doc] >= 0) {
+						deleted.set(docMaps[i][doc]);
+					}
+				}
+			}
+			List<Leaf> replaced = current.subList(at, at + inputs.size());
+			replaced.clear();
+			replaced.add(new Leaf(segment, file, deleted));
+			snapshot = new Snapshot(current);
+		}
+
+		// readers of older snapshots keep their mappings; on most systems
+		// the files can be deleted while mapped
+		for (Leaf leaf : inputs) {
+			leaf.file.delete();
+		}
+		maybeMerge();
+	}
+
+	/**
+	 * Looks up a search term in the current snapshot.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public Map<String, Integer> getCounts(String term) {
+		return snapshot.getCounts(term);
+	}
+
+	/**
+	 * Checks whether a page has been indexed, including buffered pages.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean isIndexed(String url) {
+		if (snapshot.isIndexed(url)) {
+			return true;
+		}
+		synchronized (this) {
+			return buffer.isIndexed(url);
+		}
+	}
+
+	/**
+	 * Returns the number of postings for `term` in the current snapshot.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getDocFreq(String term) {
+		return snapshot.getDocFreq(term);
+	}
+
+	/**
+	 * Returns the number of terms on a searchable page, or 0.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getDocLength(String url) {
+		return snapshot.getDocLength(url);
+	}
+
+	/**
+	 * Returns the number of searchable pages.
+	 *
+	 * @return
+	 */
+	public int numDocs() {
+		return snapshot.numDocs();
+	}
+
+	/**
+	 * Returns the average number of terms per searchable page.
+	 *
+	 * @return
+	 */
+	public double avgDocLength() {
+		return snapshot.avgDocLength();
+	}
+
+	/**
+	 * Returns the number of pages that merges have copied so far, which
+	 * is the write cost of merging.
+	 *
+	 * @return
+	 */
+	public long mergedDocCount() {
+		return mergedDocs;
+	}
+
+	/**
+	 * Flushes the buffer and waits for running merges to finish.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		merger.shutdown();
+		try {
+			merger.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (mergeError != null) {
+			throw mergeError;
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		SegmentedIndex index = new SegmentedIndex(new File("segments"), 1, 10);
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		Snapshot snapshot = index.snapshot();
+		System.out.println(snapshot.numSegments() + " segments, " + snapshot.numDocs() + " pages");
+		System.out.println(snapshot.getCounts("java"));
+		index.close();
+	}
+}
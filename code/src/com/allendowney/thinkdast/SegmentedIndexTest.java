@@ -0,0 +1,136 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks SegmentedIndex against an InvertedIndex with the same pages.
+ *
+ */
+public class SegmentedIndexTest {
+
+	private File directory;
+	private SegmentedIndex index;
+	private InvertedIndex expected;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("segments").toFile();
+		index = new SegmentedIndex(directory, 50, 4);
+		expected = new InvertedIndex();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		index.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private TermCounter randomPage(Random random, int i) {
+		TermCounter tc = new TermCounter("page" + i);
+		tc.put("common", 1 + random.nextInt(5));
+		tc.put("t" + random.nextInt(20), 1 + random.nextInt(3));
+		return tc;
+	}
+
+	@Test
+	public void testFlushAndMerge() throws IOException, InterruptedException {
+		Random random = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			// re-index some pages, so older segments have deletions
+			TermCounter tc = randomPage(random, random.nextInt(3) == 0 ? random.nextInt(i + 1) : i);
+			index.indexPage(tc);
+			expected.indexPage(tc);
+		}
+		index.close();
+
+		SegmentedIndex.Snapshot snapshot = index.snapshot();
+		assertThat(snapshot.numSegments() < 2000 / 50, is(true));
+		assertThat(snapshot.numDocs(), is(expected.numDocs()));
+		assertThat(snapshot.avgDocLength(), is(expected.avgDocLength()));
+		for (int t = 0; t < 20; t++) {
+			assertThat(snapshot.getCounts("t" + t), is(expected.getCounts("t" + t)));
+		}
+		assertThat(snapshot.getCounts("common"), is(expected.getCounts("common")));
+		assertThat(snapshot.getDocLength("page7"), is(expected.getDocLength("page7")));
+		assertThat(snapshot.isIndexed("page1999"), is(expected.isIndexed("page1999")));
+	}
+
+	@Test
+	public void testMergeCost() throws IOException {
+		index.close();
+		index = new SegmentedIndex(directory, 1, 4);
+		Random random = new Random(3);
+		for (int i = 0; i < 200; i++) {
+			index.indexPage(randomPage(random, i));
+		}
+		index.close();
+
+		// each page moves up at most 4 tiers: 1, 4, 16, 64, 256 pages
+		assertThat(index.mergedDocCount() <= 200 * 4, is(true));
+		assertThat(index.snapshot().numSegments() <= 3 * 4, is(true));
+		assertThat(index.snapshot().numDocs(), is(200));
+		assertThat(index.getCounts("common").size(), is(200));
+	}
+
+	@Test
+	public void testBuffer() throws IOException {
+		TermCounter tc = new TermCounter("page0");
+		tc.put("java", 3);
+		index.indexPage(tc);
+
+		// buffered pages are indexed but not searchable until flushed
+		assertThat(index.isIndexed("page0"), is(true));
+		assertThat(index.getCounts("java").size(), is(0));
+
+		SegmentedIndex.Snapshot before = index.snapshot();
+		index.flush();
+		assertThat(index.getCounts("java").get("page0"), is(3));
+		assertThat(before.getCounts("java").size(), is(0));
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						// every snapshot has whole flushes: a multiple of 50 pages
+						SegmentedIndex.Snapshot snapshot = index.snapshot();
+						Map<String, Integer> counts = snapshot.getCounts("common");
+						assertThat(counts.size(), is(snapshot.numDocs()));
+						assertThat(counts.size() % 50, is(0));
+					}
+				} catch (Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		reader.start();
+		Random random = new Random(2);
+		for (int i = 0; i < 3000; i++) {
+			index.indexPage(randomPage(random, i));
+		}
+		reader.interrupt();
+		reader.join();
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package com.allendowney.thinkdast;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from term to count, specialized for counting.
+ *
+ * Terms live in an open-addressing table with linear probing, and their
+ * counts in a parallel int array, so incrementing a count is one probe
+ * and allocates nothing. A term can also be looked up straight from a
+ * char array, so a tokenizer only makes a String the first time it sees
+ * a term.
+ *
+ * With a TermDictionary, the table holds term ids instead of terms, and
+ * the terms themselves are kept once, in the dictionary.
+ *
+ */
+public class TermCountTable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// null, or the dictionary whose ids are stored instead of terms
+	private final TermDictionary dictionary;
+
+	// without a dictionary: the terms and their hashes
+	private String[] keys;
+	private int[] hashes;
+
+	// with a dictionary: 1 + the id of each term, or 0 for an empty slot
+	private int[] ids;
+
+	private int[] counts;
+	private int mask;
+
+	private int size = 0;
+	private int total = 0;
+
+	/**
+	 * Constructor.
+	 */
+	public TermCountTable() {
+		this(null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dictionary  Dictionary that assigns the term ids, or null to
+	 *                    store the terms in the table.
+	 */
+	public TermCountTable(TermDictionary dictionary) {
+		this.dictionary = dictionary;
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		if (dictionary == null) {
+			keys = new String[capacity];
+			hashes = new int[capacity];
+		} else {
+			ids = new int[capacity];
+		}
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the dictionary of the term ids, or null.
+	 *
+	 * @return
+	 */
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns the count of `term`, or 0 if it is unseen.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int get(String term) {
+		int slot = find(term);
+		return slot < 0 ? 0 : counts[slot];
+	}
+
+	/**
+	 * Returns the count of the term with the given id, or 0 if it is unseen.
+	 *
+	 * @param termId  Id from the table's dictionary.
+	 * @return
+	 */
+	public int get(int termId) {
+		if (dictionary == null) {
+			throw new IllegalStateException("The table has no dictionary");
+		}
+		int slot = findId(termId);
+		return slot < 0 ? 0 : counts[slot];
+	}
+
+	/**
+	 * Checks whether `term` is in the table, even with a count of 0.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public boolean containsKey(String term) {
+		return find(term) >= 0;
+	}
+
+	/**
+	 * Sets the count of `term`.
+	 *
+	 * @param term
+	 * @param count
+	 */
+	public void put(String term, int count) {
+		int slot = slotOf(term);
+		total += count - counts[slot];
+		counts[slot] = count;
+	}
+
+	/**
+	 * Adds one to the count of `term`.
+	 *
+	 * @param term
+	 * @return The new count.
+	 */
+	public int increment(String term) {
+		int slot = slotOf(term);
+		total++;
+		return ++counts[slot];
+	}
+
+	/**
+	 * Adds one to the count of the term in `chars[offset, offset+length)`.
+	 *
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @return The term, as stored in the table or dictionary.
+	 */
+	public String increment(char[] chars, int offset, int length) {
+		if (dictionary != null) {
+			int id = dictionary.getId(chars, offset, length);
+			int slot = findId(id);
+			if (slot < 0) {
+				slot = insertId(id);
+			}
+			total++;
+			counts[slot]++;
+			return dictionary.getTerm(id);
+		}
+
+		int h = hash(hashCode(chars, offset, length));
+		int slot = h & mask;
+		while (keys[slot] != null) {
+			if (hashes[slot] == h && equals(keys[slot], chars, offset, length)) {
+				total++;
+				counts[slot]++;
+				return keys[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		String term = new String(chars, offset, length);
+		slot = insert(term, h);
+		total++;
+		counts[slot]++;
+		return term;
+	}
+
+	/**
+	 * Adds the counts of another table to this one.
+	 *
+	 * Walks the other table's slots, so no term is rehashed: tables with
+	 * the same dictionary match ids, and tables without one reuse the
+	 * stored hashes.
+	 *
+	 * @param other
+	 */
+	public void addAll(TermCountTable other) {
+		for (int i = 0; i < other.counts.length; i++) {
+			if (!other.occupied(i)) {
+				continue;
+			}
+			int slot;
+			if (dictionary != null && other.dictionary == dictionary) {
+				int id = other.ids[i] - 1;
+				slot = findId(id);
+				if (slot < 0) {
+					slot = insertId(id);
+				}
+			} else if (dictionary == null && other.dictionary == null) {
+				slot = find(other.keys[i], other.hashes[i]);
+				if (slot < 0) {
+					slot = insert(other.keys[i], other.hashes[i]);
+				}
+			} else {
+				slot = slotOf(other.termAt(i));
+			}
+			counts[slot] += other.counts[i];
+			total += other.counts[i];
+		}
+	}
+
+	/**
+	 * Returns the number of distinct terms.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the total of all counts.
+	 *
+	 * @return
+	 */
+	public int total() {
+		return total;
+	}
+
+	/**
+	 * Returns the terms, as a read-only view of the table.
+	 *
+	 * @return
+	 */
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyIterator();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && containsKey((String) o);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Spreads the high bits of a hash code into the low ones, which pick the slot.
+	 */
+	static int hash(int code) {
+		return code ^ (code >>> 16);
+	}
+
+	/**
+	 * Computes the String.hashCode of a char range, so terms can be
+	 * looked up from either.
+	 */
+	static int hashCode(char[] chars, int offset, int length) {
+		int code = 0;
+		for (int i = offset; i < offset + length; i++) {
+			code = 31 * code + chars[i];
+		}
+		return code;
+	}
+
+	static boolean equals(String key, char[] chars, int offset, int length) {
+		if (key.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the slot of `term`.
+	 *
+	 * @return The slot, or -1.
+	 */
+	private int find(String term) {
+		if (dictionary != null) {
+			int id = dictionary.lookup(term);
+			return id < 0 ? -1 : findId(id);
+		}
+		return find(term, hash(term.hashCode()));
+	}
+
+	private int find(String term, int h) {
+		int slot = h & mask;
+		while (keys[slot] != null) {
+			if (hashes[slot] == h && keys[slot].equals(term)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the slot of a term id.
+	 *
+	 * @return The slot, or -1.
+	 */
+	private int findId(int id) {
+		for (int slot = hashId(id) & mask; ids[slot] != 0; slot = (slot + 1) & mask) {
+			if (ids[slot] == id + 1) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the slot of `term`, adding it with a count of 0 if needed.
+	 */
+	private int slotOf(String term) {
+		if (dictionary != null) {
+			int id = dictionary.getId(term);
+			int slot = findId(id);
+			return slot < 0 ? insertId(id) : slot;
+		}
+		int slot = find(term);
+		return slot < 0 ? insert(term, hash(term.hashCode())) : slot;
+	}
+
+	/**
+	 * Ids are dense, so they are scrambled to spread them over the table.
+	 */
+	private static int hashId(int id) {
+		return hash(id * 0x9E3779B9);
+	}
+
+	/**
+	 * Adds a term that is not in the table, with a count of 0.
+	 *
+	 * @return Its slot.
+	 */
+	private int insert(String term, int h) {
+		// keep the table at most half full, so probe sequences stay short
+		if ((size + 1) * 2 > counts.length) {
+			resize(counts.length * 2);
+		}
+		int slot = h & mask;
+		while (keys[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = term;
+		hashes[slot] = h;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Adds a term id that is not in the table, with a count of 0.
+	 *
+	 * @return Its slot.
+	 */
+	private int insertId(int id) {
+		if ((size + 1) * 2 > counts.length) {
+			resize(counts.length * 2);
+		}
+		int slot = hashId(id) & mask;
+		while (ids[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		ids[slot] = id + 1;
+		size++;
+		return slot;
+	}
+
+	private void resize(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldIds = ids;
+		int[] oldCounts = counts;
+		allocate(capacity);
+		for (int i = 0; i < oldCounts.length; i++) {
+			int slot;
+			if (dictionary == null) {
+				if (oldKeys[i] == null) {
+					continue;
+				}
+				slot = oldHashes[i] & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				hashes[slot] = oldHashes[i];
+			} else {
+				if (oldIds[i] == 0) {
+					continue;
+				}
+				slot = hashId(oldIds[i] - 1) & mask;
+				while (ids[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				ids[slot] = oldIds[i];
+			}
+			counts[slot] = oldCounts[i];
+		}
+	}
+
+	private boolean occupied(int slot) {
+		return dictionary == null ? keys[slot] != null : ids[slot] != 0;
+	}
+
+	private String termAt(int slot) {
+		return dictionary == null ? keys[slot] : dictionary.getTerm(ids[slot] - 1);
+	}
+
+	/**
+	 * Walks the occupied slots.
+	 */
+	private class KeyIterator implements Iterator<String> {
+		private int next = advance(0);
+
+		private int advance(int from) {
+			while (from < counts.length && !occupied(from)) {
+				from++;
+			}
+			return from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < counts.length;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int slot = next;
+			next = advance(slot + 1);
+			return dictionary == null ? keys[slot] : dictionary.getTerm(ids[slot] - 1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (String term : keySet()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(term).append('=').append(get(term));
+		}
+		return sb.append('}').toString();
+	}
+}
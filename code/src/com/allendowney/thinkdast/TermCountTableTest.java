@@ -0,0 +1,80 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for TermCountTable.
+ *
+ */
+public class TermCountTableTest {
+
+	@Test
+	public void testCounts() {
+		TermCountTable table = new TermCountTable();
+		assertThat(table.increment("java"), is(1));
+		assertThat(table.increment("java"), is(2));
+		table.put("virtual", 5);
+		table.put("zero", 0);
+
+		assertThat(table.get("java"), is(2));
+		assertThat(table.get("virtual"), is(5));
+		assertThat(table.get("missing"), is(0));
+		assertThat(table.containsKey("zero"), is(true));
+		assertThat(table.containsKey("missing"), is(false));
+		assertThat(table.size(), is(3));
+		assertThat(table.total(), is(7));
+
+		table.put("virtual", 1);
+		assertThat(table.total(), is(3));
+	}
+
+	@Test
+	public void testCharArrays() {
+		TermCountTable table = new TermCountTable();
+		char[] chars = "xjavax".toCharArray();
+		String term = table.increment(chars, 1, 4);
+		assertThat(term, is("java"));
+
+		// a term already in the table is returned, not copied
+		assertThat(table.increment(chars, 1, 4), is(sameInstance(term)));
+		assertThat(table.increment("java"), is(3));
+		assertThat(table.increment("ja".toCharArray(), 0, 2), is("ja"));
+		assertThat(table.size(), is(2));
+	}
+
+	@Test
+	public void testAgainstHashMap() {
+		checkAgainstHashMap(new TermCountTable());
+	}
+
+	@Test
+	public void testAgainstHashMapWithDictionary() {
+		checkAgainstHashMap(new TermCountTable(new TermDictionary()));
+	}
+
+	private void checkAgainstHashMap(TermCountTable table) {
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		Random random = new Random(17);
+		for (int i = 0; i < 100000; i++) {
+			// "Aa" and "BB" have the same hash code, so these collide a lot
+			String term = (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(5000);
+			table.increment(term);
+			Integer count = expected.get(term);
+			expected.put(term, count == null ? 1 : count + 1);
+		}
+		assertThat(table.size(), is(expected.size()));
+		assertThat(new HashSet<String>(table.keySet()), is(expected.keySet()));
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertThat(table.get(entry.getKey()), is(entry.getValue()));
+		}
+		assertThat(table.keySet().contains("Aa1"), is(expected.containsKey("Aa1")));
+	}
+}
@@ -1,9 +1,14 @@
 package com.allendowney.thinkdast;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
@@ -13,17 +18,88 @@ import org.jsoup.select.Elements;
 /**
  * Encapsulates a map from search term to frequency (count).
  *
+ * The counts are kept in a TermCountTable, which increments them in place.
+ * With an Analyzer, each word is run through it and its terms are counted
+ * instead, so stop words are dropped and the rest stemmed; the shingles it
+ * makes are counted too, but not in the size of the page.
+ *
  * @author downey
  *
  */
 public class TermCounter {
 
-	private Map<String, Integer> map;
+	private TermCountTable counts;
 	private String label;
 
+	// positions of each term, if they are recorded, and the next position
+	private Map<String, Positions> positions;
+	private int position = 0;
+
+	// null, or the Analyzer the words go through, and its stream for this page
+	private Analyzer analyzer;
+	private Analyzer.TokenStream stream;
+	private int shingles = 0;
+
+	// counts the terms that come out of the stream
+	private final Analyzer.TermSink sink = new Analyzer.TermSink() {
+		@Override
+		public void accept(String term, int words) {
+			counts.increment(term);
+			if (words > 1) {
+				shingles++;
+			} else if (positions != null) {
+				addPosition(term);
+			}
+		}
+	};
+
+	// characters of the term being read by processText
+	private char[] buffer = new char[32];
+
+	// processElements with a pool makes this many tasks per thread, so a slow
+	// run doesn't hold the rest up, but none with fewer paragraphs than this
+	static final int TASKS_PER_THREAD = 4;
+	static final int MIN_PARAGRAPHS_PER_TASK = 8;
+
+	// ASCII characters that separate terms: whitespace and punctuation
+	private static final boolean[] ASCII_SEPARATORS = new boolean[128];
+	static {
+		for (int c = 0; c < 128; c++) {
+			ASCII_SEPARATORS[c] = isSeparator(c);
+		}
+	}
+
 	public TermCounter(String label) {
+		this(label, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param label
+	 * @param recordPositions  Whether processText records where each term
+	 *                         occurs, for phrase and proximity queries.
+	 */
+	public TermCounter(String label, boolean recordPositions) {
+		this(label, recordPositions, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param label
+	 * @param recordPositions  Whether processText records where each term
+	 *                         occurs, for phrase and proximity queries.
+	 * @param dictionary       Dictionary shared with other counters, so
+	 *                         each term is stored once; or null to keep
+	 *                         the terms in this counter.
+	 */
+	public TermCounter(String label, boolean recordPositions, TermDictionary dictionary) {
 		this.label = label;
-		this.map = new HashMap<String, Integer>();
+		this.counts = new TermCountTable(dictionary);
+		if (recordPositions) {
+			this.positions = new HashMap<String, Positions>();
+		}
 	}
 
 	public String getLabel() {
@@ -31,17 +107,38 @@ public class TermCounter {
 	}
 
 	/**
-	 * Returns the total of all counts.
+	 * Runs the words that processText finds through `analyzer`.
+	 *
+	 * Must be set before any text is processed. Stop words take no
+	 * position, the same way they take no place in an analyzed phrase.
+	 *
+	 * @param analyzer  The Analyzer, or null to count the words as they are.
+	 */
+	public void setAnalyzer(Analyzer analyzer) {
+		if (counts.total() > 0) {
+			throw new IllegalStateException("Terms have already been counted");
+		}
+		this.analyzer = analyzer;
+		this.stream = analyzer == null ? null : analyzer.newStream();
+	}
+
+	/**
+	 * Returns the Analyzer the words go through, or null.
+	 *
+	 * @return
+	 */
+	public Analyzer getAnalyzer() {
+		return analyzer;
+	}
+
+	/**
+	 * Returns the total of all counts, not counting shingles.
 	 *
 	 * @return
 	 */
 	public int size() {
 		// TODO: FILL THIS IN!
-		int total = 0;
-		for (int count : map.values()) {
-			total += count;
-		}
-		return total;
+		return counts.total() - shingles;
 	}
 
 	/**
@@ -55,6 +152,94 @@ public class TermCounter {
 		}
 	}
 
+	/**
+	 * Counts the words of a collection of Elements on a fork-join pool.
+	 *
+	 * The paragraphs are split into a few runs per thread of the pool,
+	 * each counted by a task into its own TermCounter, and the counters are
+	 * merged into this one in order, so the counts and positions come out
+	 * the same as processElements(paragraphs) gives; only shingles that
+	 * span two runs are missed. The local counters share this counter's
+	 * dictionary and Analyzer, which are thread-safe.
+	 *
+	 * @param paragraphs
+	 * @param pool
+	 */
+	public void processElements(Elements paragraphs, ForkJoinPool pool) {
+		int n = paragraphs.size();
+		int runs = Math.min(pool.getParallelism() * TASKS_PER_THREAD, n / MIN_PARAGRAPHS_PER_TASK);
+		if (runs <= 1) {
+			processElements(paragraphs);
+			return;
+		}
+		List<CountTask> tasks = new ArrayList<CountTask>(runs);
+		for (int i = 0; i < runs; i++) {
+			tasks.add(new CountTask(paragraphs, (int) ((long) n * i / runs), (int) ((long) n * (i + 1) / runs)));
+		}
+		for (CountTask task : tasks) {
+			pool.execute(task);
+		}
+		for (CountTask task : tasks) {
+			merge(task.join());
+		}
+	}
+
+	/**
+	 * Counts paragraphs [from, to) into a new TermCounter configured like this one.
+	 */
+	private class CountTask extends RecursiveTask<TermCounter> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends Node> paragraphs;
+		private final int from;
+		private final int to;
+
+		CountTask(List<? extends Node> paragraphs, int from, int to) {
+			this.paragraphs = paragraphs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected TermCounter compute() {
+			TermCounter tc = new TermCounter(label, recordsPositions(), getDictionary());
+			tc.setAnalyzer(analyzer);
+			for (int i = from; i < to; i++) {
+				tc.processTree(paragraphs.get(i));
+			}
+			return tc;
+		}
+	}
+
+	/**
+	 * Adds the counts of another counter to this one, as if its text had
+	 * been processed after this counter's.
+	 *
+	 * If this counter records positions, the other one's are appended,
+	 * moved past this counter's last position.
+	 *
+	 * @param other
+	 * @throws IllegalArgumentException if this counter records positions and `other` does not.
+	 */
+	public void merge(TermCounter other) {
+		if (positions != null && other.positions == null && other.size() > 0) {
+			throw new IllegalArgumentException("Can't merge a counter without positions into one with them");
+		}
+		counts.addAll(other.counts);
+		shingles += other.shingles;
+		if (positions != null && other.positions != null) {
+			for (Map.Entry<String, Positions> entry : other.positions.entrySet()) {
+				Positions list = positions.get(entry.getKey());
+				if (list == null) {
+					list = new Positions();
+					positions.put(entry.getKey(), list);
+				}
+				list.addAll(entry.getValue(), position);
+			}
+			position += other.position;
+		}
+	}
+
 	/**
 	 * Finds TextNodes in a DOM tree and counts their words.
 	 *
@@ -73,18 +258,170 @@ public class TermCounter {
 	/**
 	 * Splits `text` into words and counts them.
 	 *
+	 * Terms are separated by whitespace and punctuation and converted to
+	 * lower case, in one pass over the text, and counted straight from the
+	 * buffer they are read into: the only thing allocated is a String for
+	 * each new term.
+	 *
 	 * @param text  The text to process.
 	 */
-	public void processText(String text) {
-		// replace punctuation with spaces, convert to lower case, and split on whitespace
-		String[] array = text.replaceAll("\\pP", " ").
-				              toLowerCase().
-				              split("\\s+");
-		
-		for (int i=0; i<array.length; i++) {
-			String term = array[i];
-			incrementTermCount(term);
+	public void processText(CharSequence text) {
+		buffer = scan(text, buffer, counter);
+	}
+
+	/**
+	 * Splits `text` into terms the way processText does, in order.
+	 *
+	 * @param text
+	 * @return
+	 */
+	public static List<String> tokenize(CharSequence text) {
+		final List<String> terms = new ArrayList<String>();
+		scan(text, new char[32], new TermHandler() {
+			@Override
+			public void term(char[] chars, int length) {
+				terms.add(new String(chars, 0, length));
+			}
+		});
+		return terms;
+	}
+
+	/**
+	 * Receives the terms that scan finds.
+	 */
+	private interface TermHandler {
+		/**
+		 * @param chars   Holds the term in its first `length` characters,
+		 *                until the handler returns.
+		 * @param length  At least 1.
+		 */
+		void term(char[] chars, int length);
+	}
+
+	// counts the terms that processText finds
+	private final TermHandler counter = new TermHandler() {
+		@Override
+		public void term(char[] chars, int length) {
+			if (stream != null) {
+				stream.add(new String(chars, 0, length), sink);
+				return;
+			}
+			String term = counts.increment(chars, 0, length);
+			if (positions != null) {
+				addPosition(term);
+			}
 		}
+	};
+
+	/**
+	 * Splits `text` into terms in one pass and passes each to `handler`.
+	 *
+	 * Terms are read into `buffer`, which is replaced by a bigger copy if
+	 * a term doesn't fit.
+	 *
+	 * @return The buffer, as it ends up.
+	 */
+	private static char[] scan(CharSequence text, char[] buffer, TermHandler handler) {
+		int length = 0;
+		int n = text.length();
+		for (int i = 0; i < n; ) {
+			char ch = text.charAt(i);
+			if (ch < 128) {
+				// fast path for ASCII
+				i++;
+				if (ASCII_SEPARATORS[ch]) {
+					if (length > 0) {
+						handler.term(buffer, length);
+						length = 0;
+					}
+					continue;
+				}
+				if (ch >= 'A' && ch <= 'Z') {
+					ch += 'a' - 'A';
+				}
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, length * 2);
+				}
+				buffer[length++] = ch;
+				continue;
+			}
+
+			int c = Character.codePointAt(text, i);
+			i += Character.charCount(c);
+			if (isSeparator(c)) {
+				if (length > 0) {
+					handler.term(buffer, length);
+					length = 0;
+				}
+				continue;
+			}
+			if (length + 2 > buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			length += Character.toChars(Character.toLowerCase(c), buffer, length);
+		}
+		if (length > 0) {
+			handler.term(buffer, length);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Checks whether a character separates terms: whitespace, as in the
+	 * regex \s, or punctuation, as in \pP.
+	 */
+	private static boolean isSeparator(int c) {
+		switch (c) {
+		case ' ': case '\t': case '\n': case 0x0B: case '\f': case '\r':
+			return true;
+		}
+		switch (Character.getType(c)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Records that `term` occurs at the next position on the page.
+	 *
+	 * Positions run on from one text node to the next, so a phrase can
+	 * span a link or other markup.
+	 */
+	private void addPosition(String term) {
+		Positions list = positions.get(term);
+		if (list == null) {
+			list = new Positions();
+			positions.put(term, list);
+		}
+		list.add(position++);
+	}
+
+	/**
+	 * Checks whether this counter records positions.
+	 *
+	 * @return
+	 */
+	public boolean recordsPositions() {
+		return positions != null;
+	}
+
+	/**
+	 * Returns the positions of `term`, or null if it has none or positions
+	 * are not recorded.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public Positions getPositions(String term) {
+		return positions == null ? null : positions.get(term);
 	}
 
 	/**
@@ -94,7 +431,7 @@ public class TermCounter {
 	 */
 	public void incrementTermCount(String term) {
 		// System.out.println(term);
-		put(term, get(term) + 1);
+		counts.increment(term);
 	}
 
 	/**
@@ -104,7 +441,7 @@ public class TermCounter {
 	 * @param count
 	 */
 	public void put(String term, int count) {
-		map.put(term, count);
+		counts.put(term, count);
 	}
 
 	/**
@@ -114,8 +451,26 @@ public class TermCounter {
 	 * @return
 	 */
 	public Integer get(String term) {
-		Integer count = map.get(term);
-		return count == null ? 0 : count;
+		return counts.get(term);
+	}
+
+	/**
+	 * Returns the count of the term with the given id, or 0 if it is unseen.
+	 *
+	 * @param termId  Id from this counter's dictionary.
+	 * @return
+	 */
+	public int get(int termId) {
+		return counts.get(termId);
+	}
+
+	/**
+	 * Returns the dictionary that the term ids come from, or null.
+	 *
+	 * @return
+	 */
+	public TermDictionary getDictionary() {
+		return counts.getDictionary();
 	}
 
 	/**
@@ -124,7 +479,7 @@ public class TermCounter {
 	 * @return
 	 */
 	public Set<String> keySet() {
-		return map.keySet();
+		return counts.keySet();
 	}
 
 	/**
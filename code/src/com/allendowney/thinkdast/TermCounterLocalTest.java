@@ -0,0 +1,84 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.jsoup.select.Elements;
+import org.junit.Test;
+
+/**
+ * Tests for TermCounter that don't fetch anything from the network.
+ *
+ */
+public class TermCounterLocalTest {
+
+	@Test
+	public void testProcessText() {
+		TermCounter tc = new TermCounter("url");
+		tc.processText("  The cat's hat, THE HAT\u2014and\tC++ \u00c9t\u00e9! ");
+		assertThat(tc.get("the"), is(2));
+		assertThat(tc.get("hat"), is(2));
+		assertThat(tc.get("s"), is(1));
+		assertThat(tc.get("and"), is(1));
+		assertThat(tc.get("c++"), is(1));
+		assertThat(tc.get("\u00e9t\u00e9"), is(1));
+		assertThat(tc.get(""), is(0));
+		assertThat(tc.size(), is(9));
+	}
+
+	@Test
+	public void testMerge() {
+		TermCounter tc1 = new TermCounter("url", true);
+		tc1.processText("the cat and the hat");
+		TermCounter tc2 = new TermCounter("url", true);
+		tc2.processText("the bat");
+		tc1.merge(tc2);
+
+		assertThat(tc1.get("the"), is(3));
+		assertThat(tc1.get("bat"), is(1));
+		assertThat(tc1.size(), is(7));
+		assertThat(tc1.getPositions("the").toArray(), is(new int[] {0, 3, 5}));
+		assertThat(tc1.getPositions("bat").toArray(), is(new int[] {6}));
+
+		try {
+			tc1.merge(new TermCounter("url"));
+		} catch (IllegalArgumentException e) {
+			fail("an empty counter has no positions to lose");
+		}
+		TermCounter tc3 = new TermCounter("url");
+		tc3.processText("cat");
+		try {
+			tc1.merge(tc3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// tc3 has no positions
+		}
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		WikiFetcher wf = new WikiFetcher();
+		Elements paragraphs = wf.readWikipedia("https://en.wikipedia.org/wiki/Java_(Programming_Language)");
+		assertThat(paragraphs.size() > TermCounter.MIN_PARAGRAPHS_PER_TASK * 2, is(true));
+
+		TermDictionary dictionary = new TermDictionary();
+		TermCounter sequential = new TermCounter("url", true, dictionary);
+		sequential.processElements(paragraphs);
+		TermCounter parallel = new TermCounter("url", true, dictionary);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			parallel.processElements(paragraphs, pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		assertThat(parallel.size(), is(sequential.size()));
+		assertThat(parallel.keySet(), is(sequential.keySet()));
+		for (String term : sequential.keySet()) {
+			assertThat(parallel.get(term), is(sequential.get(term)));
+			assertThat(parallel.getPositions(term).toArray(), is(sequential.getPositions(term).toArray()));
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gives each distinct term an int id, shared by all the TermCounters
+ * that use the dictionary.
+ *
+ * A TermCounter with a dictionary stores ids and counts instead of its
+ * own copy of every term, and compares ids instead of strings. Ids are
+ * assigned in order from 0 and never change.
+ *
+ * Lookups don't lock: terms live in an open-addressing table whose slots
+ * are published with volatile writes, and a table is replaced, never
+ * rehashed in place, when it fills up. Adding a term takes a lock, so
+ * many threads can share one dictionary.
+ *
+ */
+public class TermDictionary {
+
+	/**
+	 * An open-addressing table from term to id.
+	 *
+	 * A slot's hash and id are written before its key, and read after it.
+	 */
+	private static class Table {
+		final AtomicReferenceArray<String> keys;
+		final int[] hashes;
+		final int[] ids;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new AtomicReferenceArray<String>(capacity);
+			hashes = new int[capacity];
+			ids = new int[capacity];
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Table table = new Table(1024);
+
+	// id -> term; replaced by a bigger copy when it fills up
+	private volatile String[] terms = new String[512];
+
+	// guarded by this
+	private int size = 0;
+
+	/**
+	 * Returns the id of `term`, or -1 if it has none.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int lookup(String term) {
+		int h = hash(term.hashCode());
+		Table t = table;
+		for (int slot = h & t.mask; ; slot = (slot + 1) & t.mask) {
+			String key = t.keys.get(slot);
+			if (key == null) {
+				break;
+			}
+			if (t.hashes[slot] == h && key.equals(term)) {
+				return t.ids[slot];
+			}
+		}
+		// the table may have been replaced while we looked
+		return t == table ? -1 : lookup(term);
+	}
+
+	/**
+	 * Returns the id of `term`, assigning the next one if it has none.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int getId(String term) {
+		int id = lookup(term);
+		return id >= 0 ? id : add(term, hash(term.hashCode()));
+	}
+
+	/**
+	 * Returns the id of the term in `chars[offset, offset+length)`,
+	 * assigning the next one if it has none.
+	 *
+	 * Makes a String only if the term is new to the dictionary.
+	 *
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int getId(char[] chars, int offset, int length) {
+		int h = hash(TermCountTable.hashCode(chars, offset, length));
+		Table t = table;
+		for (int slot = h & t.mask; ; slot = (slot + 1) & t.mask) {
+			String key = t.keys.get(slot);
+			if (key == null) {
+				break;
+			}
+			if (t.hashes[slot] == h && TermCountTable.equals(key, chars, offset, length)) {
+				return t.ids[slot];
+			}
+		}
+		return add(new String(chars, offset, length), h);
+	}
+
+	/**
+	 * Returns the term with the given id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public String getTerm(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a term, unless another thread got there first.
+	 *
+	 * @return Its id.
+	 */
+	private synchronized int add(String term, int h) {
+		Table t = table;
+		int slot = h & t.mask;
+		for (String key; (key = t.keys.get(slot)) != null; slot = (slot + 1) & t.mask) {
+			if (t.hashes[slot] == h && key.equals(term)) {
+				return t.ids[slot];
+			}
+		}
+
+		int id = size++;
+		if (id == terms.length) {
+			terms = Arrays.copyOf(terms, id * 2);
+		}
+		terms[id] = term;
+
+		// keep the table at most half full, so probe sequences stay short
+		if (size * 2 > t.keys.length()) {
+			t = resize(t);
+			table = t;
+			return id;
+		}
+		t.hashes[slot] = h;
+		t.ids[slot] = id;
+		t.keys.set(slot, term);
+		return id;
+	}
+
+	/**
+	 * Makes a table twice as big with all the terms, including the newest.
+	 */
+	private Table resize(Table old) {
+		Table t = new Table(old.keys.length() * 2);
+		for (int id = 0; id < size; id++) {
+			String term = terms[id];
+			int h = hash(term.hashCode());
+			int slot = h & t.mask;
+			while (t.keys.get(slot) != null) {
+				slot = (slot + 1) & t.mask;
+			}
+			t.hashes[slot] = h;
+			t.ids[slot] = id;
+			t.keys.set(slot, term);
+		}
+		return t;
+	}
+
+	private static int hash(int code) {
+		return TermCountTable.hash(code);
+	}
+}
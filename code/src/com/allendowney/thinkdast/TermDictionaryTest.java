@@ -0,0 +1,94 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for TermDictionary.
+ *
+ */
+public class TermDictionaryTest {
+
+	@Test
+	public void testIds() {
+		TermDictionary dictionary = new TermDictionary();
+		assertThat(dictionary.lookup("java"), is(-1));
+		assertThat(dictionary.getId("java"), is(0));
+		assertThat(dictionary.getId("virtual"), is(1));
+		assertThat(dictionary.getId("java"), is(0));
+		assertThat(dictionary.getId("xjavax".toCharArray(), 1, 4), is(0));
+		assertThat(dictionary.getId("machine".toCharArray(), 0, 7), is(2));
+		assertThat(dictionary.lookup("machine"), is(2));
+		assertThat(dictionary.getTerm(1), is("virtual"));
+		assertThat(dictionary.size(), is(3));
+
+		// ids stay the same as the table grows
+		for (int i = 0; i < 10000; i++) {
+			assertThat(dictionary.getId("term" + i), is(i + 3));
+		}
+		assertThat(dictionary.lookup("java"), is(0));
+		assertThat(dictionary.getTerm(5002), is("term4999"));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final TermDictionary dictionary = new TermDictionary();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		for (int t = 0; t < 4; t++) {
+			futures.add(executor.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					int[] ids = new int[20000];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = dictionary.getId("term" + i);
+					}
+					return ids;
+				}
+			}));
+		}
+		int[] expected = futures.get(0).get();
+		for (Future<int[]> future : futures) {
+			assertThat(future.get(), is(expected));
+		}
+		executor.shutdown();
+
+		// every term got exactly one id
+		assertThat(dictionary.size(), is(20000));
+		for (int i = 0; i < expected.length; i++) {
+			assertThat(dictionary.getTerm(expected[i]), is("term" + i));
+		}
+	}
+
+	@Test
+	public void testSharedCounters() {
+		TermDictionary dictionary = new TermDictionary();
+		TermCounter tc1 = new TermCounter("page1", false, dictionary);
+		TermCounter tc2 = new TermCounter("page2", false, dictionary);
+		tc1.processText("the cat and the hat");
+		tc2.processText("The hat");
+
+		int id = dictionary.lookup("the");
+		assertThat(tc1.get(id), is(2));
+		assertThat(tc2.get(id), is(1));
+		assertThat(tc1.get("hat"), is(1));
+		assertThat(tc2.get("cat"), is(0));
+		assertThat(tc1.size(), is(5));
+		assertThat(tc1.keySet().contains("and"), is(true));
+		assertThat(tc2.keySet().size(), is(2));
+
+		// both counters hold the dictionary's copy of each term
+		for (String term : tc2.keySet()) {
+			assertThat(term, is(sameInstance(dictionary.getTerm(dictionary.lookup(term)))));
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Scores terms by TF-IDF.
+ *
+ * Term frequency is damped logarithmically, so a page that repeats a word
+ * 100 times is not 100 times as relevant, and multiplied by the inverse
+ * document frequency, so words that appear everywhere count for little.
+ *
+ */
+public class TfIdfScorer implements Scorer {
+
+	@Override
+	public double score(int tf, int docLength, int df, int numDocs, double avgDocLength) {
+		if (tf <= 0) {
+			return 0;
+		}
+		double idf = Math.log(1.0 + (double) numDocs / Math.max(df, 1));
+		return (1.0 + Math.log(tf)) * idf;
+	}
+}
@@ -0,0 +1,196 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the top k pages for an OR query with WAND dynamic pruning.
+ *
+ * Each term has an upper bound, the score of its largest count on its
+ * shortest page. The cursors are kept sorted by docId; a page can only
+ * enter the top k if the bounds of the terms at or before it add up to
+ * more than the current k-th best score. Pages that cannot are skipped
+ * with PostingsList.Cursor.advance instead of being scored, so common
+ * terms cost little once the heap has filled with good results.
+ *
+ * See Broder et al., "Efficient query evaluation using a two-level
+ * retrieval process", CIKM 2003.
+ *
+ */
+public class WandSearcher {
+
+	private final InvertedIndex index;
+	private final Scorer scorer;
+
+	// number of pages fully scored by the last search
+	private int scored;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param scorer  Must follow the monotonicity contract of Scorer.
+	 */
+	public WandSearcher(InvertedIndex index, Scorer scorer) {
+		this.index = index;
+		this.scorer = scorer;
+	}
+
+	/**
+	 * One query term: its cursor, statistics and score bound.
+	 */
+	private class Term {
+		final PostingsList.Cursor cursor;
+		final int df;
+		final double upperBound;
+
+		Term(PostingsList postings, int numDocs, double avgDocLength) {
+			cursor = postings.cursor();
+			df = postings.size();
+			upperBound = scorer.score(postings.maxFreq(), postings.minDocLength(), df, numDocs, avgDocLength);
+		}
+
+		int docId() {
+			return cursor.docId();
+		}
+	}
+
+	private static class Hit {
+		final int docId;
+		final double score;
+
+		Hit(int docId, double score) {
+			this.docId = docId;
+			this.score = score;
+		}
+	}
+
+	private static final Comparator<Term> BY_DOC_ID = new Comparator<Term>() {
+		@Override
+		public int compare(Term t1, Term t2) {
+			return Integer.compare(t1.docId(), t2.docId());
+		}
+	};
+
+	private static final Comparator<Hit> BY_SCORE = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit h1, Hit h2) {
+			return Double.compare(h1.score, h2.score);
+		}
+	};
+
+	/**
+	 * Finds the `k` best pages that contain any of `terms`.
+	 *
+	 * The relevance of a page is the sum of the scores of the terms it
+	 * contains, so the results are the same as scoring every page.
+	 *
+	 * @param terms
+	 * @param k      Number of results; 0 for all of them (no pruning).
+	 * @return Map from URL to relevance, most relevant first.
+	 */
+	public Map<String, Double> search(List<String> terms, int k) {
+		int numDocs = index.numDocs();
+		double avgDocLength = index.avgDocLength();
+
+		List<Term> list = new ArrayList<Term>();
+		for (String term : new LinkedHashSet<String>(terms)) {
+			PostingsList postings = index.get(term);
+			if (postings != null) {
+				list.add(new Term(postings, numDocs, avgDocLength));
+			}
+		}
+		Term[] cursors = list.toArray(new Term[list.size()]);
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(Math.max(k, 1) + 1, BY_SCORE);
+		scored = 0;
+
+		while (true) {
+			Arrays.sort(cursors, BY_DOC_ID);
+			double threshold = k > 0 && heap.size() >= k ? heap.peek().score : Double.NEGATIVE_INFINITY;
+
+			// find the pivot: the first term where the bounds add up past the threshold
+			int pivot = -1;
+			double bound = 0;
+			for (int i = 0; i < cursors.length; i++) {
+				if (cursors[i].docId() == PostingsCursor.NO_MORE_DOCS) {
+					break;
+				}
+				bound += cursors[i].upperBound;
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0) {
+				break;
+			}
+			int pivotDoc = cursors[pivot].docId();
+
+			if (cursors[0].docId() == pivotDoc) {
+				// every term before the pivot is on pivotDoc, so score it
+				double score = 0;
+				for (Term term : cursors) {
+					if (term.docId() == pivotDoc) {
+						score += scorer.score(term.cursor.freq(), index.getDocLength(pivotDoc),
+								term.df, numDocs, avgDocLength);
+						term.cursor.next();
+					}
+				}
+				scored++;
+				if (!index.isDeleted(pivotDoc) && score > threshold) {
+					heap.offer(new Hit(pivotDoc, score));
+					if (k > 0 && heap.size() > k) {
+						heap.poll();
+					}
+				}
+			} else {
+				// no page before pivotDoc can make the top k
+				for (int i = 0; i < pivot; i++) {
+					cursors[i].cursor.advance(pivotDoc);
+				}
+			}
+		}
+
+		List<Hit> hits = new ArrayList<Hit>(heap);
+		hits.sort(BY_SCORE.reversed());
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		for (Hit hit : hits) {
+			results.put(index.getURL(hit.docId), hit.score);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the number of pages fully scored by the last search.
+	 *
+	 * @return
+	 */
+	public int getScoredCount() {
+		return scored;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = new WikiFetcher();
+		InvertedIndex index = new InvertedIndex();
+
+		String url = "https://en.wikipedia.org/wiki/Java_(programming_language)";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		url = "https://en.wikipedia.org/wiki/Programming_language";
+		index.indexPage(url, wf.fetchWikipedia(url));
+
+		WandSearcher searcher = new WandSearcher(index, new BM25Scorer());
+		System.out.println(searcher.search(Arrays.asList("java", "the", "programming"), 10));
+	}
+}
@@ -0,0 +1,117 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks WandSearcher against scoring every page.
+ *
+ */
+public class WandSearcherTest {
+
+	private InvertedIndex index;
+	private Scorer scorer;
+
+	/**
+	 * Builds a random index where "common" is on every page and
+	 * "rare" is on a few.
+	 */
+	@Before
+	public void setUp() {
+		Random random = new Random(17);
+		index = new InvertedIndex();
+		for (int i = 0; i < 2000; i++) {
+			TermCounter tc = new TermCounter("page" + i);
+			tc.put("common", 1 + random.nextInt(5));
+			tc.put("filler", 10 + random.nextInt(200));
+			if (random.nextInt(3) == 0) {
+				tc.put("medium", 1 + random.nextInt(10));
+			}
+			if (random.nextInt(100) == 0) {
+				tc.put("rare", 1 + random.nextInt(20));
+			}
+			index.indexPage(tc);
+		}
+		scorer = new BM25Scorer();
+	}
+
+	@Test
+	public void testSameAsExhaustive() {
+		List<List<String>> queries = Arrays.asList(
+				Arrays.asList("common"),
+				Arrays.asList("rare", "common"),
+				Arrays.asList("medium", "rare", "common"),
+				Arrays.asList("rare", "missing"));
+		WandSearcher searcher = new WandSearcher(index, scorer);
+		for (List<String> terms : queries) {
+			List<Double> expected = exhaustive(terms, 10);
+			Map<String, Double> results = searcher.search(terms, 10);
+			List<Double> actual = new ArrayList<Double>(results.values());
+			assertThat(actual.size(), is(expected.size()));
+			for (int i = 0; i < actual.size(); i++) {
+				assertThat(actual.get(i), closeTo(expected.get(i), 1e-9));
+			}
+		}
+	}
+
+	@Test
+	public void testPruning() {
+		WandSearcher searcher = new WandSearcher(index, scorer);
+		searcher.search(Arrays.asList("rare", "common"), 10);
+		assertThat(searcher.getScoredCount(), lessThan(2000));
+
+		// without a limit every matching page is scored
+		Map<String, Double> all = searcher.search(Arrays.asList("rare", "common"), 0);
+		assertThat(all.size(), is(2000));
+		assertThat(searcher.getScoredCount(), is(2000));
+	}
+
+	@Test
+	public void testReindex() {
+		TermCounter tc = new TermCounter("page0");
+		tc.put("rare", 1000);
+		index.indexPage(tc);
+
+		Map<String, Double> results = new WandSearcher(index, scorer).search(Arrays.asList("rare"), 1);
+		assertThat(results.keySet().iterator().next(), is("page0"));
+		assertThat(index.numDocs(), is(2000));
+		assertThat(index.getCounts("rare").get("page0"), is(1000));
+		assertThat(index.getCounts("common").containsKey("page0"), is(false));
+	}
+
+	/**
+	 * Scores every page and returns the best `k` scores, in decreasing order.
+	 */
+	private List<Double> exhaustive(List<String> terms, int k) {
+		Map<String, Double> totals = new HashMap<String, Double>();
+		for (String term : terms) {
+			Map<String, Integer> counts = index.getCounts(term);
+			int df = index.getDocFreq(term);
+			for (Entry<String, Integer> entry : counts.entrySet()) {
+				String url = entry.getKey();
+				double score = scorer.score(entry.getValue(), index.getDocLength(url), df,
+						index.numDocs(), index.avgDocLength());
+				Double total = totals.get(url);
+				totals.put(url, total == null ? score : total + score);
+			}
+		}
+		List<Double> scores = new ArrayList<Double>(totals.values());
+		scores.sort(null);
+		List<Double> best = new ArrayList<Double>();
+		for (int i = scores.size() - 1; i >= 0 && best.size() < k; i--) {
+			best.add(scores.get(i));
+		}
+		return best;
+	}
+}
@@ -18,7 +18,7 @@ public class WikiCrawler {
 	private final String source;
 
 	// the index where the results go
-	private JedisIndex index;
+	private SearchIndex index;
 
 	// queue of URLs to be indexed
 	private Queue<String> queue = new LinkedList<String>();
@@ -32,7 +32,7 @@ public class WikiCrawler {
 	 * @param source
 	 * @param index
 	 */
-	public WikiCrawler(String source, JedisIndex index) {
+	public WikiCrawler(String source, SearchIndex index) {
 		this.source = source;
 		this.index = index;
 		queue.offer(source);
@@ -2,13 +2,17 @@ package com.allendowney.thinkdast;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import redis.clients.jedis.Jedis;
 
@@ -42,6 +46,24 @@ public class WikiSearch {
 		return relevance==null ? 0: relevance;
 	}
 
+	/**
+	 * Returns the number of results.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns the URLs of the results.
+	 *
+	 * @return
+	 */
+	public Set<String> urls() {
+		return Collections.unmodifiableSet(map.keySet());
+	}
+
 	/**
 	 * Prints the contents in order of term frequency.
 	 *
@@ -138,6 +160,23 @@ public class WikiSearch {
 	}
 
 
+	/**
+	 * Returns the `k` most relevant results, most relevant first.
+	 *
+	 * Keeps only the best `k` entries in a bounded heap (see ListSorter.topK),
+	 * so it takes O(n log k) time and O(k) space instead of sorting all n.
+	 *
+	 * @param k
+	 * @return List of entries with URL and relevance.
+	 */
+	public List<Entry<String, Double>> topK(int k) {
+		Comparator<Entry<String, Double>> comparator = Map.Entry.comparingByValue();
+		ListSorter<Entry<String, Double>> sorter = new ListSorter<Entry<String, Double>>();
+		List<Entry<String, Double>> top = sorter.topK(k, map.entrySet(), comparator);
+		Collections.reverse(top);
+		return top;
+	}
+
 	/**
 	 * Performs a search and makes a WikiSearch object.
 	 *
@@ -145,7 +184,7 @@ public class WikiSearch {
 	 * @param index
 	 * @return
 	 */
-	public static WikiSearch search(String term, JedisIndex index) {
+	public static WikiSearch search(String term, SearchIndex index) {
 		Map<String, Integer> map = index.getCounts(term);
 
 		int df = getDf(map);
@@ -157,6 +196,333 @@ public class WikiSearch {
 		return new WikiSearch(mapTfDf);
 	}
 
+	/**
+	 * Performs a search and scores the results with `scorer`.
+	 *
+	 * The page lengths come back with the counts, and the statistics are
+	 * kept by the index at index time, so on JedisIndex this costs one
+	 * extra lookup no matter how many pages match.
+	 *
+	 * @param term
+	 * @param index
+	 * @param scorer
+	 * @return
+	 */
+	public static WikiSearch search(String term, SearchIndex index, Scorer scorer) {
+		Map<String, Integer> lengths = new HashMap<>();
+		Map<String, Integer> counts = index.getCountsAndLengths(term, lengths);
+		CorpusStats stats = index.getStats();
+		// every page in `counts` contains the term, so it is also the document frequency
+		return score(counts, lengths, counts.size(), stats.getNumDocs(), stats.getAvgDocLength(), scorer);
+	}
+
+	/**
+	 * Performs a search restricted to `urls` and scores the results with `scorer`.
+	 *
+	 * Only the candidate pages are looked up, which is much cheaper than
+	 * reading all the pages of a common term when there are few of them.
+	 * The document frequency of the term comes from the index, so the
+	 * scores do not depend on which pages are asked for.
+	 *
+	 * @param term
+	 * @param urls
+	 * @param index
+	 * @param scorer
+	 * @return
+	 */
+	public static WikiSearch search(String term, Collection<String> urls, SearchIndex index, Scorer scorer) {
+		Map<String, Integer> counts = index.getCounts(term, urls);
+		Map<String, Integer> lengths = index.getDocLengths(counts.keySet());
+		CorpusStats stats = index.getStats();
+		return score(counts, lengths, index.getDocFreq(term), stats.getNumDocs(), stats.getAvgDocLength(), scorer);
+	}
+
+	private static WikiSearch score(Map<String, Integer> counts, Map<String, Integer> lengths,
+			int df, int numDocs, double avgDocLength, Scorer scorer) {
+		Map<String, Double> map = new HashMap<>(counts.size() * 2);
+		for (Entry<String, Integer> entry : counts.entrySet()) {
+			String url = entry.getKey();
+			double relevance = scorer.score(entry.getValue(), lengths.get(url), df, numDocs, avgDocLength);
+			map.put(url, relevance);
+		}
+		return new WikiSearch(map);
+	}
+
+	/**
+	 * Finds the `k` best pages that contain all of `terms`.
+	 *
+	 * The intersection and scoring run inside Redis, so only the results
+	 * cross the network. Needs an index in the POSTINGS layout.
+	 *
+	 * No Scorer is used: relevance is the sum of the raw term counts, with
+	 * no weight for rare terms or short pages, so the scores can't be
+	 * compared with those of search(term, index, scorer). For BM25 scores,
+	 * run the query through a QueryPlanner instead.
+	 *
+	 * @param terms
+	 * @param index
+	 * @param k      Number of results; 0 for all of them.
+	 * @return
+	 */
+	public static WikiSearch searchAnd(List<String> terms, JedisIndex index, int k) {
+		List<String> none = Collections.emptyList();
+		return new WikiSearch(index.query(true, terms, none, k));
+	}
+
+	/**
+	 * Finds the `k` best pages that contain any of `terms`, scored inside Redis.
+	 *
+	 * As in searchAnd, relevance is the sum of the raw counts, not a Scorer's.
+	 *
+	 * @param terms
+	 * @param index
+	 * @param k      Number of results; 0 for all of them.
+	 * @return
+	 */
+	public static WikiSearch searchOr(List<String> terms, JedisIndex index, int k) {
+		List<String> none = Collections.emptyList();
+		return new WikiSearch(index.query(false, terms, none, k));
+	}
+
+	/**
+	 * Finds the `k` best pages that contain any of `terms` in an in-memory
+	 * index, using WAND to skip pages that cannot make the top `k`.
+	 *
+	 * Relevance is the sum of the term scores.
+	 *
+	 * @param terms
+	 * @param index
+	 * @param scorer
+	 * @param k      Number of results; 0 for all of them.
+	 * @return
+	 */
+	public static WikiSearch searchOr(List<String> terms, InvertedIndex index, Scorer scorer, int k) {
+		return new WikiSearch(new WandSearcher(index, scorer).search(terms, k));
+	}
+
+	/**
+	 * Finds the `k` best pages that contain all of `terms` in an in-memory
+	 * index, intersecting the postings with skip pointers.
+	 *
+	 * Relevance is the sum of the term scores.
+	 *
+	 * @param terms
+	 * @param index
+	 * @param scorer
+	 * @param k      Number of results; 0 for all of them.
+	 * @return
+	 */
+	public static WikiSearch searchAnd(List<String> terms, InvertedIndex index, Scorer scorer, int k) {
+		return new WikiSearch(new ConjunctionSearcher(index, scorer).search(terms, k));
+	}
+
+	/**
+	 * Scores the pages in `docs` by the sum of the scores of `terms`.
+	 *
+	 * Meant for the result of a boolean filter built with DocSet and/or/andNot
+	 * on InvertedIndex.getDocSet: the set operations work on docIds only,
+	 * and scores are attached once at the end, for the pages that are left.
+	 *
+	 * @param docs
+	 * @param terms
+	 * @param index
+	 * @param scorer
+	 * @return
+	 */
+	public static WikiSearch search(DocSet docs, List<String> terms, InvertedIndex index, Scorer scorer) {
+		int[] docIds = docs.toArray();
+		double[] scores = new double[docIds.length];
+		int numDocs = index.numDocs();
+		double avgDocLength = index.avgDocLength();
+
+		for (String term : new LinkedHashSet<String>(terms)) {
+			PostingsList postings = index.get(term);
+			if (postings == null) {
+				continue;
+			}
+			PostingsList.Cursor cursor = postings.cursor();
+			for (int i = 0; i < docIds.length; i++) {
+				if (cursor.advance(docIds[i]) == docIds[i]) {
+					scores[i] += scorer.score(cursor.freq(), index.getDocLength(docIds[i]),
+							postings.size(), numDocs, avgDocLength);
+				}
+			}
+		}
+
+		Map<String, Double> map = new HashMap<>(docIds.length * 2);
+		for (int i = 0; i < docIds.length; i++) {
+			map.put(index.getURL(docIds[i]), scores[i]);
+		}
+		return new WikiSearch(map);
+	}
+
+	/**
+	 * Finds the `k` best pages that contain all of `terms` and none of
+	 * `excluded`, scored inside Redis.
+	 *
+	 * As in searchAnd, relevance is the sum of the raw counts of `terms`,
+	 * not a Scorer's.
+	 *
+	 * @param terms
+	 * @param excluded
+	 * @param index
+	 * @param k      Number of results; 0 for all of them.
+	 * @return
+	 */
+	public static WikiSearch searchAndNot(List<String> terms, List<String> excluded, JedisIndex index, int k) {
+		return new WikiSearch(index.query(true, terms, excluded, k));
+	}
+
+	/**
+	 * Finds the pages where `terms` occur next to each other, in order.
+	 *
+	 * Only pages indexed with positions can match; see Index(boolean).
+	 * The phrase is scored like a single term whose count is the number
+	 * of times it occurs.
+	 *
+	 * @param terms
+	 * @param index
+	 * @param scorer
+	 * @return
+	 */
+	public static WikiSearch searchPhrase(List<String> terms, Index index, Scorer scorer) {
+		Map<TermCounter, Integer> matches = new HashMap<>();
+		for (TermCounter tc : candidates(terms, index)) {
+			int count = countPhrase(tc, terms);
+			if (count > 0) {
+				matches.put(tc, count);
+			}
+		}
+		return scoreMatches(matches, index, scorer);
+	}
+
+	/**
+	 * Finds the pages where `term2` occurs within `k` positions of `term1`,
+	 * before or after it (term1 NEAR/k term2).
+	 *
+	 * Each occurrence of `term1` with `term2` nearby counts once.
+	 *
+	 * @param term1
+	 * @param term2
+	 * @param k
+	 * @param index
+	 * @param scorer
+	 * @return
+	 */
+	public static WikiSearch searchNear(String term1, String term2, int k, Index index, Scorer scorer) {
+		Map<TermCounter, Integer> matches = new HashMap<>();
+		for (TermCounter tc : candidates(Arrays.asList(term1, term2), index)) {
+			int count = countNear(tc, term1, term2, k);
+			if (count > 0) {
+				matches.put(tc, count);
+			}
+		}
+		return scoreMatches(matches, index, scorer);
+	}
+
+	/**
+	 * Returns the pages that contain all of `terms`, starting from the
+	 * term with the fewest pages.
+	 */
+	private static List<TermCounter> candidates(List<String> terms, Index index) {
+		Set<TermCounter> smallest = null;
+		for (String term : terms) {
+			Set<TermCounter> set = index.get(term);
+			if (set == null) {
+				return Collections.emptyList();
+			}
+			if (smallest == null || set.size() < smallest.size()) {
+				smallest = set;
+			}
+		}
+		List<TermCounter> list = new ArrayList<>();
+		if (smallest == null) {
+			return list;
+		}
+		outer:
+		for (TermCounter tc : smallest) {
+			for (String term : terms) {
+				if (tc.getPositions(term) == null) {
+					continue outer;
+				}
+			}
+			list.add(tc);
+		}
+		return list;
+	}
+
+	/**
+	 * Counts the places where `terms` occur in order on one page.
+	 */
+	private static int countPhrase(TermCounter tc, List<String> terms) {
+		int n = terms.size();
+		Positions.Cursor[] cursors = new Positions.Cursor[n];
+		for (int i = 0; i < n; i++) {
+			cursors[i] = tc.getPositions(terms.get(i)).cursor();
+		}
+
+		int count = 0;
+		int p = cursors[0].position();
+		while (p != Positions.NO_MORE_POSITIONS) {
+			// term i has to be at p + i
+			int i = 1;
+			while (i < n && cursors[i].advance(p + i) == p + i) {
+				i++;
+			}
+			if (i == n) {
+				count++;
+				p = cursors[0].next();
+			} else {
+				// the first start that could line up with term i
+				int q = cursors[i].position();
+				p = q == Positions.NO_MORE_POSITIONS ? q : cursors[0].advance(q - i);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the occurrences of `term1` with `term2` at most `k` positions away.
+	 */
+	private static int countNear(TermCounter tc, String term1, String term2, int k) {
+		int count = 0;
+		if (term1.equals(term2)) {
+			// an occurrence is near another one just before or after it
+			int[] array = tc.getPositions(term1).toArray();
+			for (int i = 0; i < array.length; i++) {
+				if ((i > 0 && array[i] - array[i - 1] <= k) ||
+						(i + 1 < array.length && array[i + 1] - array[i] <= k)) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		Positions.Cursor first = tc.getPositions(term1).cursor();
+		Positions.Cursor second = tc.getPositions(term2).cursor();
+		for (int p = first.position(); p != Positions.NO_MORE_POSITIONS; p = first.next()) {
+			// both cursors only move forward, since p - k only grows
+			int q = second.advance(Math.max(0, p - k));
+			if (q != Positions.NO_MORE_POSITIONS && q - p <= k) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static WikiSearch scoreMatches(Map<TermCounter, Integer> matches, Index index, Scorer scorer) {
+		int df = matches.size();
+		int numDocs = index.numDocs();
+		double avgDocLength = index.avgDocLength();
+
+		Map<String, Double> map = new HashMap<>(matches.size() * 2);
+		for (Entry<TermCounter, Integer> entry : matches.entrySet()) {
+			TermCounter tc = entry.getKey();
+			map.put(tc.getLabel(), scorer.score(entry.getValue(), tc.size(), df, numDocs, avgDocLength));
+		}
+		return new WikiSearch(map);
+	}
+
 	private static int getDf(Map<String, Integer> m) {
 		int df = 0;
 		for (Integer tf : m.values()) {